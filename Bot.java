@@ -0,0 +1,81 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Server side player that fills in for clients when a lobby waited too long.
+ * It has no socket and no thread of its own, it plays in the thread that wakes it:
+ * the first wake plays the game with random moves, the second takes the results.
+ * In round based games the Game asks it for a move every round instead.
+ */
+public class Bot implements Player
+{
+    private static final String NAME = "Bot ";      // Space keeps bots apart from usernames
+
+    private final String name;
+    private Game game;
+    private long state;                             // Bot's game state, see EngineState
+    private boolean played;                         // If the next wake is for the results
+
+    public Bot(int number)
+    {
+        this.name = NAME + number;
+    }
+
+    @Override
+    public String getClientName()
+    {
+        return name;
+    }
+
+    @Override
+    public void setGame(Game game)
+    {
+        this.game = game;
+        this.played = false;
+    }
+
+    @Override
+    public void wake()
+    {
+        if (played)
+        {
+            game.resultsDelivered();
+            return;
+        }
+        played = true;
+
+        if (!game.isRoundBased())
+        {
+            GameEngine engine = game.getEngine();
+            state = engine.createState(game.getSecret());
+            while (!engine.isFinished(state))
+            {
+                state = engine.applyMove(state, nextMove(engine));
+            }
+            game.playerFinished(this);
+        }
+    }
+
+    @Override
+    public String sendResult()
+    {
+        return game.getEngine().getResult(state, name);
+    }
+
+    // Bots do not read chat.
+    @Override
+    public void deliverChat(byte[] frame)
+    {
+    }
+
+    // Bot's move for the next round.
+    public String nextMove(GameEngine engine)
+    {
+        return engine.randomMove(ThreadLocalRandom.current());
+    }
+
+    // Game sets the bot's state when its round based game is over.
+    public void setState(long state)
+    {
+        this.state = state;
+    }
+}
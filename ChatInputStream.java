@@ -0,0 +1,115 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Input from one client with its chat taken out.
+ * A chat line starts with '/' and ends with a newline, the client sends it whenever the user types it,
+ * on its own or in front of an answer. Usernames, guesses and commands never contain '/'.
+ * Reads return only the answers, chat lines are handed to the listener as they are read.
+ */
+public class ChatInputStream extends FilterInputStream
+{
+    private static final byte CHAT = '/';
+    private static final byte END = '\n';
+    private static final int BUFFER = 1024;
+
+    private final Consumer<String> listener;
+    private byte[] partial;                     // Chat line read so far, waiting for its newline
+    private int partialLength;
+
+    public ChatInputStream(InputStream inputStream, Consumer<String> listener)
+    {
+        super(inputStream);
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    // Reads until an answer comes, handling the chat that comes before it.
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        while (true)
+        {
+            int count = in.read(buffer, offset, length);
+            if (count <= 0)
+            {
+                return count;
+            }
+            count = takeChat(buffer, offset, count);
+            if (count > 0)
+            {
+                return count;
+            }
+        }
+    }
+
+    // Handles the chat the client sent while not asked for anything, without waiting for more.
+    // Anything else sent out of turn is dropped.
+    public void readChat() throws IOException
+    {
+        byte[] buffer = null;
+        while (in.available() > 0)
+        {
+            if (buffer == null)
+            {
+                buffer = new byte[BUFFER];
+            }
+            int count = in.read(buffer, 0, BUFFER);
+            if (count <= 0)
+            {
+                return;
+            }
+            takeChat(buffer, 0, count);
+        }
+    }
+
+    // Takes the chat lines out of the buffer and returns the length of what is left.
+    // A chat line without its newline yet is kept until the rest of it is read, TCP may split it anywhere.
+    // The rest of the buffer is cleared, as callers read it up to the first zero.
+    private int takeChat(byte[] buffer, int offset, int count)
+    {
+        int end = offset + count;
+        int kept = offset;
+        int i = offset;
+        while (i < end)
+        {
+            if (partial == null && buffer[i] != CHAT)
+            {
+                buffer[kept++] = buffer[i++];
+                continue;
+            }
+
+            if (partial == null)
+            {
+                partial = new byte[BUFFER];
+                partialLength = 0;
+                i++;
+            }
+            int start = i;
+            while (i < end && buffer[i] != END)
+            {
+                i++;
+            }
+            int length = Math.min(i - start, BUFFER - partialLength);    // Longer lines are cut
+            System.arraycopy(buffer, start, partial, partialLength, length);
+            partialLength += length;
+            if (i < end)
+            {
+                listener.accept(new String(partial, 0, partialLength));
+                partial = null;
+                i++;
+            }
+        }
+        Arrays.fill(buffer, kept, end, (byte) 0);
+        return kept - offset;
+    }
+}
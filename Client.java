@@ -1,5 +1,6 @@
 import java.io.IOException;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 
 /**
  * client class creates another thread using ClientThread to handle game
@@ -7,24 +8,34 @@ import java.net.Socket;
 
 public class Client
 {
+    private static final String UDP_OPTION = "udp";
+
     /**
      * Runs client.
      * Gets IP address of the host
      * Connects to port 61616 of the server, which server class is also using.
      * Connects to it.
-     * Sends the socket to ClientThread class for gameplay
+     * Sends the connection to ClientThread class for gameplay
+     * Run with the argument udp to use the datagram transport instead of TCP.
      */
 
     public static void main(String[] args)
     {
-        Socket socket = null;
+        Connection connection = null;
 
         try
         {
-            socket = getSocket();
+            if (args.length > 0 && args[0].equalsIgnoreCase(UDP_OPTION))
+            {
+                connection = DatagramTransport.connect(getAddress(), 61616);
+            }
+            else
+            {
+                connection = new SocketConnection(getChannel(), true);
+            }
 
             // Creats a new thread to handle file reading
-            ClientThread thread = new ClientThread((socket));   //Sends socket to ClientThread  to play game
+            ClientThread thread = new ClientThread((connection));   //Sends connection to ClientThread  to play game
 
             thread.run();   //Runs the client function instead of creating a new thread.
         }
@@ -36,10 +47,23 @@ public class Client
 
     /**
      * Gets IP address of the host
-     * Creats a socket using the address and port 61616 which is also used by the server
-     * Returns the socket
+     * Creats a socket channel using the address and port 61616 which is also used by the server
+     * Returns the channel
      */
-    public static Socket getSocket() throws IOException
+    public static SocketChannel getChannel() throws IOException
+    {
+        String address = getAddress();
+
+        // Channel connected to address and port 61616
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(address, 61616));
+
+        //DEBUG
+        System.out.println("Client created at : " + address);     // Testing address
+        return channel;
+    }
+
+    // Address of the server, used by both transports.
+    public static String getAddress()
     {
         // Server runs at this address
         String address = "netprog1.csit.rmit.edu.au";                   // The same address is used by server
@@ -48,10 +72,6 @@ public class Client
         // To test on local machiene.
         //String local_address = "localhost";
 
-        Socket socket = new Socket(address, 61616);          // Socket created using address and port 61616
-
-        //DEBUG
-        System.out.println("Client created at : " + address);     // Testing address
-        return socket;
+        return address;
     }
 }
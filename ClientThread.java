@@ -1,20 +1,22 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
- * Gets socket from client class.
+ * Gets connection from client class.
  * Runs the game from server.
+ * The user's lines are read on their own thread: lines starting with '/' are chat and sent straight away,
+ * the others answer the server's next prompt.
  */
 public class ClientThread extends Thread
 
 {
-    private Socket socket;
+    private Connection connection;
 
     // A list of game states, used to check if the state of the game
     // There are 3 game states,
@@ -35,12 +37,19 @@ public class ClientThread extends Thread
 
     //Maximum length of message to send to server.
     private final int MAX_OUTPUT = 25;
+    //Maximum length of a chat line, the server cuts longer ones.
+    private final int MAX_CHAT = 200;
+    // Starts a chat line
+    private final String CHAT = "/";
 
-    public ClientThread(Socket socket)
+    // Lines the user typed to answer prompts, in order.
+    private final LinkedBlockingQueue<String> answers = new LinkedBlockingQueue<String>();
+
+    public ClientThread(Connection connection)
     {
         //setting thread as user interface thread
         this.setDaemon(true);
-        this.socket = socket;
+        this.connection = connection;
     }
 
     //Runs the client thread concurrently
@@ -48,15 +57,14 @@ public class ClientThread extends Thread
     {
         InputStream inputStream = null;
         OutputStream outputStream = null;
-        Scanner scanner = null;
 
         try
         {
-            inputStream = socket.getInputStream();      //Gets inputStream from Server to read from server.
+            inputStream = connection.getInputStream();      //Gets inputStream from Server to read from server.
 
-            outputStream = socket.getOutputStream();    //Gets outputStream from Server to write to server.
+            outputStream = connection.getOutputStream();    //Gets outputStream from Server to write to server.
 
-            scanner = new Scanner(System.in);           // Scanner for user input
+            startReader(outputStream);                  // Reads user input
 
             String serverInput, clientOutput;           // Strings to store serverInput and Client output.
 
@@ -87,7 +95,7 @@ public class ClientThread extends Thread
                     // Gets input from user either to register or to guess the number.
                     while(true)
                     {
-                        clientOutput = scanner.nextLine();
+                        clientOutput = answers.take();
 
                         // Check if the input is in range.
                         if(clientOutput.length() < 1)
@@ -115,13 +123,20 @@ public class ClientThread extends Thread
                 }
 
                 // Writes either the username, guess number or continue confirmation to server.
-                outputStream.write(clientOutput.getBytes());
+                synchronized (outputStream)
+                {
+                    outputStream.write(clientOutput.getBytes());
+                }
             }
         }
         catch(IOException e)
         {
             e.printStackTrace();
         }
+        catch(InterruptedException e)
+        {
+            e.printStackTrace();
+        }
 
         //Closing streams and connections
         finally
@@ -129,14 +144,13 @@ public class ClientThread extends Thread
             try
             {
                 //Closing input-stream
-                scanner.close();
                 inputStream.close();
 
                 //Closing output-stream
                 outputStream.close();
 
                 //Close connection
-                socket.close();
+                connection.close();
             }
             catch (IOException e)
             {
@@ -144,4 +158,45 @@ public class ClientThread extends Thread
             }
         }
     }
+
+    // Reads the user's lines on a daemon thread, sending chat as soon as it is typed.
+    // The server takes chat out of whatever it reads, so chat can go out between any two messages.
+    private void startReader(final OutputStream outputStream)
+    {
+        Thread reader = new Thread(() -> {
+            Scanner scanner = new Scanner(System.in);           // Scanner for user input
+            try
+            {
+                while (scanner.hasNextLine())
+                {
+                    String line = scanner.nextLine();
+                    if (!line.startsWith(CHAT))
+                    {
+                        answers.add(line);
+                    }
+                    else if (line.length() > MAX_CHAT + CHAT.length())
+                    {
+                        System.out.println(MESSAGE_LONG);
+                    }
+                    else if (line.length() > CHAT.length())
+                    {
+                        synchronized (outputStream)
+                        {
+                            outputStream.write((line + "\n").getBytes());
+                        }
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // Connection closed, the game is over.
+            }
+            finally
+            {
+                scanner.close();
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+    }
 }
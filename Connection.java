@@ -0,0 +1,32 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A client's connection to the server, or the server's connection to a client.
+ * Hides if messages travel over a TCP socket or over datagrams.
+ */
+public interface Connection
+{
+    // Stream to read messages from the other side.
+    InputStream getInputStream() throws IOException;
+
+    // Stream to write messages to the other side.
+    OutputStream getOutputStream() throws IOException;
+
+    // Writes the first count parts as one message, in a single write when the transport allows.
+    void write(ByteBuffer[] parts, int count) throws IOException;
+
+    // Reads wait at most this many milliseconds before throwing SocketTimeoutException, 0 waits forever.
+    void setTimeout(int timeout) throws IOException;
+
+    // Checks if the transport keeps the connection alive by itself, so no Stay Alive messages are needed.
+    boolean keepsAlive();
+
+    // Checks if the connection was closed, by this side, by the other side or because the other side is gone.
+    // A TCP connection only knows the other side closed it once a read saw the end of the stream.
+    boolean isClosed();
+
+    void close() throws IOException;
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Connection to one peer over a DatagramTransport.
+ * The game protocol waits for an answer to every message, so every message is must deliver:
+ * messages get sequence numbers and are retransmitted until acknowledged, and are read in order.
+ * Acknowledgements ride on the next message or heartbeat, and are only sent on their own
+ * if there is nothing to send for a while. Heartbeats replace the Stay Alive messages.
+ * The client holds its messages back until the server accepted its hello, see DatagramTransport.
+ */
+public class DatagramConnection extends MessageConnection
+{
+    private static final int MAX_PAYLOAD = DatagramTransport.MAX_PACKET - DatagramTransport.HEADER_SIZE;
+    private static final int RETRANSMIT_INTERVAL = 200;     // Wait for an acknowledgement before resending, in ms.
+    private static final int MAX_RETRANSMITS = 25;          // Resends before the peer is considered gone.
+    private static final int ACK_DELAY = 20;                // Wait for a message to piggyback an acknowledgement, in ms.
+    private static final int HEARTBEAT_INTERVAL = 5000;     // Heartbeat when nothing was sent for this long, in ms.
+    private static final int PEER_TIMEOUT = 30000;          // Peer is gone when nothing was received for this long, in ms.
+
+    private final DatagramTransport transport;
+    private final SocketAddress address;        // The peer
+    private final boolean client;               // The client says hello until the server answers
+    private final long createdAt;
+
+    // Sending side, guarded by this connection's lock.
+    private int nextSeq = 1;
+    private final TreeMap<Integer, byte[]> unacknowledged = new TreeMap<Integer, byte[]>();
+    private long lastResend;
+    private int retransmits;
+    private long lastSent;
+
+    // Receiving side, guarded by this connection's lock.
+    private int expectedSeq = 1;
+    private final Map<Integer, byte[]> outOfOrder = new HashMap<Integer, byte[]>();
+    private boolean ackDue;
+    private long ackDueAt;
+    private long lastReceived;
+
+    // Handshake, guarded by this connection's lock. A server's connection is accepted when it is made.
+    private boolean established;
+    private int cookie;                         // Server's cookie for the client, 0 until it sent one
+
+    private boolean closing;                    // Closed here, sending the last messages
+    private volatile boolean closed;
+
+    DatagramConnection(DatagramTransport transport, SocketAddress address, boolean client)
+    {
+        super(new LinkedBlockingQueue<byte[]>());
+        this.transport = transport;
+        this.address = address;
+        this.client = client;
+        this.createdAt = System.currentTimeMillis();
+        this.lastReceived = createdAt;
+        this.established = !client;
+    }
+
+    // Heartbeats keep the connection alive.
+    @Override
+    public boolean keepsAlive()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        synchronized (this)
+        {
+            return closing || closed;
+        }
+    }
+
+    // Messages already written are still delivered before the peer is told about the close.
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closing = true;
+            if (ackDue && !closed)
+            {
+                sendPacket(DatagramTransport.ACK, 0, END_OF_STREAM);   // The peer may be waiting on it.
+            }
+        }
+    }
+
+    public SocketAddress getAddress()
+    {
+        return address;
+    }
+
+    // Receiving is shared with the other connections of the transport, see DatagramTransport.
+    @Override
+    protected byte[] takeMessage(int timeout) throws IOException
+    {
+        return transport.take(inbound, timeout);
+    }
+
+    // Sends the message, split into as many packets as it needs.
+    @Override
+    protected void writeMessage(byte[] buffer, int offset, int length) throws IOException
+    {
+        synchronized (this)
+        {
+            if (closed || closing)
+            {
+                throw new IOException("Connection closed");
+            }
+
+            do
+            {
+                int count = Math.min(length, MAX_PAYLOAD);
+                byte[] payload = new byte[count];
+                System.arraycopy(buffer, offset, payload, 0, count);
+
+                int seq = nextSeq++;
+                if (unacknowledged.isEmpty())
+                {
+                    lastResend = System.currentTimeMillis();
+                }
+                unacknowledged.put(seq, payload);
+                if (established)
+                {
+                    sendPacket(DatagramTransport.DATA, seq, payload);
+                }
+
+                offset += count;
+                length -= count;
+            } while (length > 0);
+        }
+    }
+
+    // Handles a packet from the peer, called by the transport thread.
+    void receive(byte type, int seq, int ack, byte[] payload)
+    {
+        synchronized (this)
+        {
+            lastReceived = System.currentTimeMillis();
+
+            if (type == DatagramTransport.COOKIE)
+            {
+                if (client && !established)
+                {
+                    cookie = seq;
+                    sendPacket(DatagramTransport.HELLO, cookie, END_OF_STREAM);
+                }
+                return;
+            }
+            if (type == DatagramTransport.HELLO)
+            {
+                if (!client)
+                {
+                    sendPacket(DatagramTransport.ACK, 0, END_OF_STREAM);   // Accepted, also when it was said again.
+                }
+                return;
+            }
+            if (!established)
+            {
+                // Any other answer means the server accepted the hello, the messages held back can go.
+                established = true;
+                lastResend = lastReceived;
+                for (Map.Entry<Integer, byte[]> entry : unacknowledged.entrySet())
+                {
+                    sendPacket(DatagramTransport.DATA, entry.getKey(), entry.getValue());
+                }
+            }
+
+            // Everything up to ack arrived, stop resending it.
+            if (!unacknowledged.headMap(ack, true).isEmpty())
+            {
+                unacknowledged.headMap(ack, true).clear();
+                retransmits = 0;
+                lastResend = lastReceived;
+            }
+
+            if (type == DatagramTransport.DATA)
+            {
+                if (seq == expectedSeq)
+                {
+                    deliver(payload);
+                    for (byte[] next; (next = outOfOrder.remove(expectedSeq)) != null; )
+                    {
+                        deliver(next);
+                    }
+                }
+                else if (seq > expectedSeq)
+                {
+                    outOfOrder.put(seq, payload);
+                }
+
+                // Acknowledge, also duplicates as our acknowledgement may have been lost.
+                if (!ackDue)
+                {
+                    ackDue = true;
+                    ackDueAt = lastReceived + ACK_DELAY;
+                }
+            }
+            else if (type == DatagramTransport.CLOSE)
+            {
+                shutdown();
+            }
+        }
+    }
+
+    // Resends unacknowledged messages, sends delayed acknowledgements and heartbeats, called by the transport thread.
+    void tick(long now)
+    {
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            // Until the server accepts, the client says hello as often as it would resend.
+            if (!established)
+            {
+                if (closing || now - createdAt >= PEER_TIMEOUT)
+                {
+                    shutdown();
+                }
+                else if (now - lastSent >= RETRANSMIT_INTERVAL)
+                {
+                    sendPacket(DatagramTransport.HELLO, cookie, END_OF_STREAM);
+                }
+                return;
+            }
+
+            if (!unacknowledged.isEmpty() && now - lastResend >= RETRANSMIT_INTERVAL)
+            {
+                if (++retransmits > MAX_RETRANSMITS)
+                {
+                    shutdown();
+                    return;
+                }
+                for (Map.Entry<Integer, byte[]> entry : unacknowledged.entrySet())
+                {
+                    sendPacket(DatagramTransport.DATA, entry.getKey(), entry.getValue());
+                }
+                lastResend = now;
+            }
+
+            if (closing && unacknowledged.isEmpty())
+            {
+                sendPacket(DatagramTransport.CLOSE, 0, END_OF_STREAM);
+                shutdown();
+                return;
+            }
+
+            if (now - lastReceived >= PEER_TIMEOUT)
+            {
+                shutdown();
+                return;
+            }
+
+            if (ackDue && now >= ackDueAt)
+            {
+                sendPacket(DatagramTransport.ACK, 0, END_OF_STREAM);
+            }
+            else if (now - lastSent >= HEARTBEAT_INTERVAL)
+            {
+                sendPacket(DatagramTransport.HEARTBEAT, 0, END_OF_STREAM);
+            }
+        }
+    }
+
+    // Every packet carries the acknowledgement, so there is no need for a separate one.
+    private void sendPacket(byte type, int seq, byte[] payload)
+    {
+        transport.send(address, type, seq, expectedSeq - 1, payload, 0, payload.length);
+        ackDue = false;
+        lastSent = System.currentTimeMillis();
+    }
+
+    private void deliver(byte[] payload)
+    {
+        inbound.add(payload);
+        expectedSeq++;
+    }
+
+    // Ends the connection, reads see the end of the stream once the received messages are read.
+    private void shutdown()
+    {
+        closed = true;
+        inbound.add(END_OF_STREAM);
+        transport.remove(this);
+    }
+}
@@ -0,0 +1,442 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Low latency transport sending messages as UDP datagrams over one DatagramChannel.
+ * A thread waiting to read a message receives the packets itself while no other thread does,
+ * so in the usual lockstep its message is not handed over between threads on the way.
+ * Packets for the other connections are handed to them. The transport's own thread receives
+ * what comes while nobody waits, and lets the connections retransmit, acknowledge and send heartbeats.
+ *
+ * Every packet starts with a 9 byte header:
+ *  type (1 byte) - DATA, ACK, HEARTBEAT, CLOSE, HELLO or COOKIE
+ *  seq  (4 bytes) - sequence number of a DATA packet, the cookie of a HELLO or COOKIE
+ *  ack  (4 bytes) - highest sequence number received in order, piggybacked on every packet
+ *
+ * A client opens a connection with a HELLO, the server answers with a COOKIE made from the client's address,
+ * and only a HELLO carrying that cookie back opens the connection. No state is kept for a client before that,
+ * and nothing bigger than the packet received is sent to an address that did not prove it receives packets.
+ * Packets from unknown clients other than HELLO are answered with a CLOSE, so they stop.
+ */
+public class DatagramTransport implements Runnable
+{
+    // Packet types
+    public static final byte DATA = 1;          // Message, delivered reliably and in order
+    public static final byte ACK = 2;           // Acknowledgement when there was no message to piggyback it on
+    public static final byte HEARTBEAT = 3;     // Keeps the connection alive, replaces the Stay Alive messages
+    public static final byte CLOSE = 4;         // The other side closed the connection
+    public static final byte HELLO = 5;         // Client asks for a connection, with the cookie once it has one
+    public static final byte COOKIE = 6;        // Server's answer to a hello without a valid cookie
+
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_PACKET = 1400;  // Stays below the usual MTU
+    private static final int TICK = 10;         // How often connections check their timers, in milliseconds.
+    private static final int MAX_CONNECTIONS = 1024;    // Hellos are ignored while the server has this many clients
+    private static final int COOKIE_LIFETIME = 60000;   // A cookie is valid for one to two of these, in milliseconds.
+    private static final byte[] EMPTY = new byte[0];
+    // Put in the inbound queue of a waiting reader when the receiving thread stopped, so it receives next.
+    private static final byte[] PROMOTE = new byte[0];
+
+    // Gets new connections of clients on the server.
+    public interface Acceptor
+    {
+        void accept(DatagramConnection connection);
+    }
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Acceptor acceptor;            // null on the client, which only talks to the server
+    private final ConcurrentHashMap<SocketAddress, DatagramConnection> connections =
+            new ConcurrentHashMap<SocketAddress, DatagramConnection>();
+    private volatile boolean running = true;
+    private final Mac cookieMac;                // Signs the cookies, only used by the receiving thread of a server
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);     // Only used by the receiving thread
+
+    // One thread at a time receives, guarded by this transport's lock.
+    private boolean receiving;
+    private final ArrayDeque<LinkedBlockingQueue<byte[]>> followers =
+            new ArrayDeque<LinkedBlockingQueue<byte[]>>();     // Inbound queues of readers waiting meanwhile
+
+    private DatagramTransport(DatagramChannel channel, Acceptor acceptor) throws IOException
+    {
+        this.channel = channel;
+        this.acceptor = acceptor;
+        this.cookieMac = (acceptor != null) ? newCookieMac() : null;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    // Listens for clients on the port, each new client is given to the acceptor.
+    public static DatagramTransport listen(int port, Acceptor acceptor) throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+
+        DatagramTransport transport = new DatagramTransport(channel, acceptor);
+        transport.start();
+        return transport;
+    }
+
+    // Cookies are signed with a key made when the server starts, so they cannot be made up.
+    private static Mac newCookieMac() throws IOException
+    {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        try
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    // Connects to a server, the returned connection keeps saying hello until the server answers.
+    public static DatagramConnection connect(String address, int port) throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        InetSocketAddress server = new InetSocketAddress(address, port);
+        channel.connect(server);
+
+        DatagramTransport transport = new DatagramTransport(channel, null);
+        DatagramConnection connection = new DatagramConnection(transport, server, true);
+        transport.connections.put(server, connection);
+        transport.start();
+        return connection;
+    }
+
+    private void start()
+    {
+        Thread thread = new Thread(this, "datagram-transport");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Runs the connections' timers and receives the packets that come while no reader waits, until closed.
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                if (lead(null))
+                {
+                    try
+                    {
+                        receivePackets();
+                    }
+                    finally
+                    {
+                        stepDown();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                for (DatagramConnection connection : connections.values())
+                {
+                    connection.tick(now);
+                }
+
+                synchronized (this)
+                {
+                    if (running)
+                    {
+                        wait(TICK);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        catch (InterruptedException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            try
+            {
+                // A reader still receiving is woken by close and stops.
+                synchronized (this)
+                {
+                    while (receiving)
+                    {
+                        wait(TICK);
+                    }
+                }
+                selector.close();
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Takes the next message from a connection's inbound queue, waiting at most timeout ms, 0 waits forever.
+    // Returns null if none came in time. While no other thread receives, the caller receives the packets.
+    byte[] take(LinkedBlockingQueue<byte[]> inbound, int timeout) throws IOException
+    {
+        long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        boolean promoted = false;       // Asked to receive as the receiving thread stopped
+
+        try
+        {
+            while (true)
+            {
+                byte[] message = inbound.poll();
+                long remaining = deadline - System.currentTimeMillis();
+                if (message != null || remaining <= 0)
+                {
+                    if (promoted)
+                    {
+                        passOn();
+                    }
+                    return message;
+                }
+
+                promoted = false;
+                if (lead(inbound))
+                {
+                    receiveUntil(inbound, deadline);
+                }
+                else
+                {
+                    message = inbound.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (message == PROMOTE)
+                    {
+                        promoted = true;
+                    }
+                    else
+                    {
+                        unfollow(inbound);
+                        if (message != null)
+                        {
+                            return message;
+                        }
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Receives as the receiving thread until the reader has a message, its deadline passed or the transport closed.
+    private void receiveUntil(LinkedBlockingQueue<byte[]> inbound, long deadline) throws IOException
+    {
+        try
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            while (inbound.isEmpty() && running && remaining > 0)
+            {
+                selector.select((deadline == Long.MAX_VALUE) ? 0 : remaining);
+                selector.selectedKeys().clear();
+                receivePackets();
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        finally
+        {
+            stepDown();
+        }
+    }
+
+    // Receives the packets waiting in the channel, called by the receiving thread.
+    private void receivePackets() throws IOException
+    {
+        SocketAddress sender;
+        while ((sender = channel.receive(buffer)) != null)
+        {
+            buffer.flip();
+            receive(sender, buffer);
+            buffer.clear();
+        }
+    }
+
+    // Makes the caller the receiving thread if none is. Otherwise a reader waits as a follower.
+    private boolean lead(LinkedBlockingQueue<byte[]> follower)
+    {
+        synchronized (this)
+        {
+            if (!receiving && running)
+            {
+                receiving = true;
+                return true;
+            }
+            if (follower != null)
+            {
+                followers.add(follower);
+            }
+            return false;
+        }
+    }
+
+    // The receiving thread stops, a waiting reader receives next.
+    private void stepDown()
+    {
+        synchronized (this)
+        {
+            receiving = false;
+            promoteNext();
+        }
+    }
+
+    // A reader stops waiting. If it was asked to receive meanwhile, the next reader is asked instead.
+    private void unfollow(LinkedBlockingQueue<byte[]> follower)
+    {
+        synchronized (this)
+        {
+            if (!followers.remove(follower))
+            {
+                follower.remove(PROMOTE);
+                passOn();
+            }
+        }
+    }
+
+    // Asks the next waiting reader to receive if still nobody does.
+    private void passOn()
+    {
+        synchronized (this)
+        {
+            if (!receiving)
+            {
+                promoteNext();
+            }
+        }
+    }
+
+    // Called holding the lock.
+    private void promoteNext()
+    {
+        LinkedBlockingQueue<byte[]> next = followers.poll();
+        if (next != null)
+        {
+            next.add(PROMOTE);
+        }
+    }
+
+    // Hands a packet to the connection of its sender, a new client gets a new connection once its hello has the cookie.
+    private void receive(SocketAddress sender, ByteBuffer packet)
+    {
+        if (packet.remaining() < HEADER_SIZE)
+        {
+            return;     // Not one of ours.
+        }
+
+        byte type = packet.get();
+        int seq = packet.getInt();
+        int ack = packet.getInt();
+        byte[] payload = new byte[packet.remaining()];
+        packet.get(payload);
+
+        DatagramConnection connection = connections.get(sender);
+        if (connection == null)
+        {
+            if (acceptor == null || type == CLOSE)
+            {
+                return;
+            }
+            if (type != HELLO)
+            {
+                // Left over from a connection that ended, e.g. heartbeats of a client the server closed.
+                send(sender, CLOSE, 0, 0, EMPTY, 0, 0);
+                return;
+            }
+
+            long period = System.currentTimeMillis() / COOKIE_LIFETIME;
+            if (seq == 0 || (seq != cookie(sender, period) && seq != cookie(sender, period - 1)))
+            {
+                send(sender, COOKIE, cookie(sender, period), 0, EMPTY, 0, 0);
+                return;
+            }
+            if (connections.size() >= MAX_CONNECTIONS)
+            {
+                return;     // Full, the client keeps saying hello until it gives up.
+            }
+            connection = new DatagramConnection(this, sender, false);
+            connections.put(sender, connection);
+            acceptor.accept(connection);
+        }
+        connection.receive(type, seq, ack, payload);
+    }
+
+    // Cookie of the address for the period, never 0 as that is a hello without a cookie.
+    private int cookie(SocketAddress sender, long period)
+    {
+        InetSocketAddress address = (InetSocketAddress) sender;
+        cookieMac.update(address.getAddress().getAddress());
+        cookieMac.update(ByteBuffer.allocate(12).putInt(address.getPort()).putLong(period).array());
+        int cookie = ByteBuffer.wrap(cookieMac.doFinal()).getInt();
+        return (cookie == 0) ? 1 : cookie;
+    }
+
+    // Sends one packet, a packet the channel cannot take now is lost and left to the retransmit timer.
+    void send(SocketAddress receiver, byte type, int seq, int ack, byte[] payload, int offset, int length)
+    {
+        ByteBuffer packet = ByteBuffer.allocate(HEADER_SIZE + length);
+        packet.put(type).putInt(seq).putInt(ack).put(payload, offset, length);
+        packet.flip();
+
+        try
+        {
+            channel.send(packet, receiver);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // Forgets a closed connection. The client's transport has nothing left to do and shuts down.
+    // The receiving thread is woken, it may be the connection's reader.
+    void remove(DatagramConnection connection)
+    {
+        connections.remove(connection.getAddress(), connection);
+        selector.wakeup();
+        if (acceptor == null)
+        {
+            close();
+        }
+    }
+
+    // Stops the transport thread, which closes the channel.
+    public void close()
+    {
+        running = false;
+        selector.wakeup();
+        synchronized (this)
+        {
+            notifyAll();
+        }
+    }
+}
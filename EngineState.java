@@ -0,0 +1,63 @@
+/**
+ * Packs a player's game state into a single long so engines stay pure and allocation free.
+ *
+ * Layout:
+ *  bits  0-31  secret to be guessed
+ *  bits 32-47  number of moves used
+ *  bits 48-55  outcome code of the last move, meaning is up to the engine
+ *  bit  56     player won
+ */
+public final class EngineState
+{
+    private static final long SECRET_MASK = 0xFFFFFFFFL;
+    private static final int MOVES_SHIFT = 32;
+    private static final long MOVES_MASK = 0xFFFFL;
+    private static final int OUTCOME_SHIFT = 48;
+    private static final long OUTCOME_MASK = 0xFFL;
+    private static final long WON_BIT = 1L << 56;
+
+    private EngineState()
+    {
+    }
+
+    // Creates a state with no moves made.
+    public static long create(int secret)
+    {
+        return secret & SECRET_MASK;
+    }
+
+    public static int getSecret(long state)
+    {
+        return (int) (state & SECRET_MASK);
+    }
+
+    public static int getMoves(long state)
+    {
+        return (int) ((state >>> MOVES_SHIFT) & MOVES_MASK);
+    }
+
+    public static int getOutcome(long state)
+    {
+        return (int) ((state >>> OUTCOME_SHIFT) & OUTCOME_MASK);
+    }
+
+    public static boolean hasWon(long state)
+    {
+        return (state & WON_BIT) != 0;
+    }
+
+    // Records the outcome of a move, using up a move if counted.
+    public static long withMove(long state, int outcome, boolean counted, boolean won)
+    {
+        int moves = getMoves(state) + (counted ? 1 : 0);
+
+        state &= SECRET_MASK | WON_BIT;
+        state |= ((long) moves & MOVES_MASK) << MOVES_SHIFT;
+        state |= ((long) outcome & OUTCOME_MASK) << OUTCOME_SHIFT;
+        if (won)
+        {
+            state |= WON_BIT;
+        }
+        return state;
+    }
+}
@@ -1,50 +1,76 @@
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 /**
- * Gets a pool of 3 serverThreads from server
- * Generates random number for the game.
+ * Gets a pool of players from a full lobby, clients and any bots filling in for missing clients
+ * Generates the secret for the game using the lobby's GameEngine.
  * Notifies when to start the game and wait for other players
+ * In round based games, collects every player's guess and resolves the round in one batch.
  * Announces result to client.
  */
 public class Game implements Runnable
 {
-    private final String DASH_LINE = "\n----------------------------------------\n";
-    // Message to start Game.
-    private final String GAME_RULES = "Guess a number between 0-9.\n" +
-                                        "Try to guess the number generated in 4 tries.\n" +
-                                        "If you want to quit the game during guessing, enter: e.\n";
-    private final String GAME_START_MESSAGE = DASH_LINE + "Random number has been generated. Game has begun.\n"
-                                                + GAME_RULES;
+    private static final String DASH_LINE = "\n----------------------------------------\n";
+    // Message to start Game, followed by the engine's rules.
+    private static final String GAME_START_MESSAGE = DASH_LINE + "Secret has been generated. Game has begun.\n";
+    private static final String EXIT_RULE = "If you want to quit the game during guessing, enter: e.\n";
+    private static final String CHAT_RULE = "Start a line with '/' to chat with the other players.\n";
+    private static final String ROUND_RULE = "All players guess together, each round lasts at most 15 seconds.\n" +
+                                        "Standings are announced after every round.\n";
+    private static final String STANDINGS_TITLE = "Standings after round ";
     //Message when game session ends.
-    private final String SESSION_END = "Game Session has been ended.";
+    private static final String SESSION_END = "Game Session has been ended.";
     // Message to announce results to client.
-    private final String RESULT_ANNOUNCEMENT = SESSION_END + DASH_LINE + "Results: ";
+    private static final byte[] RESULT_ANNOUNCEMENT = (SESSION_END + DASH_LINE + "Results:\n").getBytes();
 
-    private final int MAX_CLIENTS = 3;
-    private final int MAX_GUESS_RANGE = 9;
-    private final int MIN_GUESS_RANGE = 0;
+    private static final int ROUND_DEADLINE = 15;      // How long a round waits for guesses after the first one, in seconds.
 
     //Server to which clients were connected.
     private Server server;
 
-    // To maintain a list of all clients.
-    private ArrayList<ServerThread> serverThreads = new ArrayList<ServerThread>();
+    // To maintain a list of all players.
+    private ArrayList<Player> players;
 
     // To keep track to disconnected clients.
-    private int serverThreadCounter;
+    private int playerCounter;
+    private boolean allFinished;                // Set when the last player finished the game
 
-    // ANSWER to be guessed by clients.
-    private final int ANSWER;
+    // Result of each client, taken when they finish as a client that leaves gives up its session slot.
+    private String[] results;
 
-    // Gets server from server and generates random number for the game session.
-    public Game(Server server)
+    // Rules of the game played in this session.
+    private final GameEngine engine;
+
+    // SECRET to be guessed by clients.
+    private final int SECRET;
+
+    // Round based play, all of it guarded by this game's lock and indexed like players.
+    private final boolean roundBased;
+    private int round = 1;                      // Round currently collecting guesses
+    private long roundDeadline;                 // When the current round is resolved, set by its first guess
+    private int submitted;                      // Guesses collected in the current round
+    private int activePlayers;                  // Players still guessing
+    private String[] pendingMoves;              // Guess of each player in the current round
+    private long[] states;                      // Game state of each player, see EngineState
+    private int[] solvedRound;                  // Round in which each player won, 0 if not yet
+    private boolean[] active;                   // If each player is still guessing
+    private boolean[] left;                     // If each player quit or timed out before finishing
+    private int[] skipped;                      // Rounds each player let pass without a guess
+    private String standings = "";              // Standings after the last resolved round
+    private String[] moveStandings;             // Standings after the round of each player's last guess
+
+    // Gets server and players from the lobby and generates the secret for the game session.
+    public Game(Server server, GameEngine engine, ArrayList<Player> players)
     {
         this.server = server;
-        this.ANSWER = new Random().nextInt(MAX_GUESS_RANGE - MIN_GUESS_RANGE + 1) + MIN_GUESS_RANGE;
+        this.engine = engine;
+        this.players = players;
+        this.roundBased = server.isRoundBased();
+        this.SECRET = engine.createSecret(new Random());
     }
 
     @Override
@@ -52,54 +78,39 @@ public class Game implements Runnable
     {
         try
         {
-            // Sleeps until until 3 clients joined the game.
-            while (server.getQueue().size() < MAX_CLIENTS)
-            {
-                Thread.sleep(10);
-            }
-
-            // The first 3 clients in the queue are added.
-            for (int i = 0; i < MAX_CLIENTS; i++)
-            {
-                serverThreads.add(server.getQueue().get(i));
-            }
-            serverThreadCounter = serverThreads.size();
-
-            // Start looking for clients for next game session on server
-            server.resetQueue();
+            playerCounter = players.size();
+            results = new String[players.size()];
+            startRounds();
 
-            // Wake up clients so that they can start the game
-            for (ServerThread serverThread : serverThreads)
+            // Wake up players so that they can start the game
+            for (Player player : players)
             {
-                synchronized(serverThread)
+                synchronized(player)
                 {
-                    serverThread.setGame(this);
-                    serverThread.wake();
+                    player.setGame(this);
+                    player.wake();
                 }
             }
 
-            // Waits till all clients have finished their game, from playerFinished method
+            // Waits till all players have finished their game, from playerFinished method
+            // Bots may have finished already, while being woken.
             synchronized(this)
             {
-                wait();
-            }
-
-            // Wake up clients when all clients have finished the game
-            for (ServerThread serverThread : serverThreads)
-            {
-                synchronized(serverThread)
+                while (!allFinished)
                 {
-                    serverThread.wake();
+                    wait();
                 }
             }
 
-            // Waits until all clients got the end results from getResults method
-            while (serverThreadCounter > 0)
+            // Wake up players when all players have finished the game
+            // The session ends when the last of them got the results, see resultsDelivered.
+            for (Player player : players)
             {
-                Thread.sleep(100);
+                synchronized(player)
+                {
+                    player.wake();
+                }
             }
-
-            System.out.println(SESSION_END);
         }
         catch (InterruptedException e)
         {
@@ -107,33 +118,61 @@ public class Game implements Runnable
         }
     }
 
-    // Gets results from serverThread and notifies client.
-    public void getResults(InputStream inputStream, OutputStream outputStream) throws IOException
+    // Gets results from players and notifies client.
+    // The announcement, every result and the standings are shown as one message, sent in one write.
+    // A client that leaves while getting them counts as delivered too, so the session still ends.
+    public void getResults(InputStream inputStream, OutboundQueue outputStream) throws IOException
     {
-        Server.sendOutput(outputStream, inputStream, RESULT_ANNOUNCEMENT);
-        for (ServerThread serverThread : serverThreads)
+        try
         {
-            Server.sendOutput(outputStream, inputStream, serverThread.sendResult());
+            outputStream.queue(RESULT_ANNOUNCEMENT);
+            for (int i = 0; i < results.length - 1; i++)
+            {
+                outputStream.queue(results[i]);
+            }
+            if (roundBased)
+            {
+                outputStream.queue(results[results.length - 1]);
+                Server.sendOutput(outputStream, inputStream, getStandings());
+            }
+            else
+            {
+                Server.sendOutput(outputStream, inputStream, results[results.length - 1]);
+            }
+        }
+        finally
+        {
+            resultsDelivered();
         }
+    }
 
+    // When a player got the results, or a bot has no use for them.
+    public void resultsDelivered()
+    {
         synchronized(this)
         {
-            serverThreadCounter--;
+            playerCounter--;
+            if (playerCounter == 0)
+            {
+                System.out.println(SESSION_END);
+            }
         }
     }
 
 
-    // When either of the clients finish the game, then this method is called.
-    // The thread is woken when all 3 clients finish the game
-    public void playerFinished()
+    // When either of the players finish the game, then this method is called.
+    // The thread is woken when all players finish the game
+    public void playerFinished(Player player)
     {
         synchronized(this)
         {
-            serverThreadCounter--;
-            if (serverThreadCounter == 0)
+            results[players.indexOf(player)] = player.sendResult();
+            playerCounter--;
+            if (playerCounter == 0)
             {
+                allFinished = true;
                 notify();
-                serverThreadCounter = serverThreads.size();
+                playerCounter = players.size();
             }
         }
     }
@@ -142,23 +181,261 @@ public class Game implements Runnable
     public String welcomePlayers()
     {
         String playerlist = "";
-        int counter = serverThreads.size() - 1;
-        for (ServerThread serverThread : serverThreads)
+        int counter = players.size() - 1;
+        for (Player player : players)
         {
-            playerlist += serverThread.getClientName();
+            playerlist += player.getClientName();
             if (counter > 0)
             {
                 playerlist += ", ";
                 counter--;
             }
         }
-        return GAME_START_MESSAGE + "\nPlayers: "+ playerlist;
+        return GAME_START_MESSAGE + engine.getRules() + (roundBased ? ROUND_RULE : "") + EXIT_RULE + CHAT_RULE
+                + "\nPlayers: "+ playerlist;
+    }
+
+    // Sets up the round tables once the players are known.
+    private void startRounds()
+    {
+        synchronized(this)
+        {
+            int size = players.size();
+            pendingMoves = new String[size];
+            states = new long[size];
+            solvedRound = new int[size];
+            active = new boolean[size];
+            left = new boolean[size];
+            skipped = new int[size];
+            moveStandings = new String[size];
+            for (int i = 0; i < size; i++)
+            {
+                states[i] = engine.createState(SECRET);
+                active[i] = true;
+            }
+            activePlayers = size;
+            if (roundBased)
+            {
+                openRound();
+            }
+        }
+    }
+
+    // Bots guess as soon as a round opens, so a round never waits on them.
+    private void openRound()
+    {
+        for (int i = 0; i < pendingMoves.length; i++)
+        {
+            if (active[i] && players.get(i) instanceof Bot)
+            {
+                pendingMoves[i] = ((Bot) players.get(i)).nextMove(engine);
+                submitted++;
+            }
+        }
+    }
+
+    // Submits the player's guess for the current round and waits until the round is resolved.
+    // The round is resolved when every active player guessed or the deadline passed,
+    // a guess arriving after that counts for the next round.
+    // Returns the player's state after the round, the standings of that round are then given by getStandings(player).
+    public long submitMove(Player player, String move) throws InterruptedException
+    {
+        synchronized(this)
+        {
+            int index = players.indexOf(player);
+            int myRound = round;
+
+            pendingMoves[index] = move;
+            submitted++;
+            if (roundDeadline == 0)
+            {
+                roundDeadline = System.currentTimeMillis() + ROUND_DEADLINE * 1000;
+            }
+
+            while (round == myRound)
+            {
+                long remaining = roundDeadline - System.currentTimeMillis();
+                if (submitted >= activePlayers || remaining <= 0)
+                {
+                    resolveRound();
+                }
+                else
+                {
+                    wait(remaining);
+                }
+            }
+            return states[index];
+        }
+    }
+
+    // Takes the player out of the rounds, when they quit or timed out.
+    public void leaveRounds(Player player)
+    {
+        synchronized(this)
+        {
+            int index = players.indexOf(player);
+            if (active[index])
+            {
+                active[index] = false;
+                left[index] = true;
+                activePlayers--;
+                if (round > 1)
+                {
+                    standings = buildStandings(round - 1);     // Ranked last from now on.
+                }
+            }
+            // The others may only be waiting on this player.
+            if (submitted > 0 && submitted >= activePlayers)
+            {
+                resolveRound();
+            }
+        }
+    }
+
+    // Applies every guess of the round in one batch, updates the standings and wakes the waiting players.
+    // When only bots are left guessing, their rounds are played straight away.
+    private void resolveRound()
+    {
+        boolean[] moved = new boolean[pendingMoves.length];
+        do
+        {
+            for (int i = 0; i < pendingMoves.length; i++)
+            {
+                moved[i] = (pendingMoves[i] != null);
+                if (!moved[i] && active[i])
+                {
+                    skipped[i]++;
+                }
+                if (moved[i])
+                {
+                    states[i] = engine.applyMove(states[i], pendingMoves[i]);
+                    pendingMoves[i] = null;
+
+                    if (active[i] && engine.isFinished(states[i]))
+                    {
+                        active[i] = false;
+                        activePlayers--;
+                        if (EngineState.hasWon(states[i]))
+                        {
+                            solvedRound[i] = round;
+                        }
+                        if (players.get(i) instanceof Bot)
+                        {
+                            ((Bot) players.get(i)).setState(states[i]);
+                            playerFinished(players.get(i));
+                        }
+                    }
+                }
+            }
+            standings = buildStandings(round);
+            for (int i = 0; i < moved.length; i++)
+            {
+                if (moved[i])
+                {
+                    moveStandings[i] = standings;
+                }
+            }
+            submitted = 0;
+            roundDeadline = 0;
+            round++;
+            openRound();
+        } while (submitted > 0 && submitted >= activePlayers);
+        notifyAll();
+    }
+
+    // Ranks players after the round, those who won first come first, then the ones who used the fewest guesses.
+    // A round without a guess counts as no better than one, players who skipped more come after.
+    // Players who left before finishing come last, however few guesses they used.
+    private String buildStandings(int resolvedRound)
+    {
+        Integer[] order = new Integer[players.size()];
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int solvedA = solvedRound[a] == 0 ? Integer.MAX_VALUE : solvedRound[a];
+            int solvedB = solvedRound[b] == 0 ? Integer.MAX_VALUE : solvedRound[b];
+            if (left[a] != left[b])
+            {
+                return left[a] ? 1 : -1;
+            }
+            if (solvedA != solvedB)
+            {
+                return Integer.compare(solvedA, solvedB);
+            }
+            if (skipped[a] != skipped[b])
+            {
+                return Integer.compare(skipped[a], skipped[b]);
+            }
+            return Integer.compare(EngineState.getMoves(states[a]), EngineState.getMoves(states[b]));
+        });
+
+        StringBuilder builder = new StringBuilder(STANDINGS_TITLE).append(resolvedRound).append(':');
+        for (int rank = 0; rank < order.length; rank++)
+        {
+            int player = order[rank];
+            builder.append('\n').append(rank + 1).append(". ").append(players.get(player).getClientName());
+            if (solvedRound[player] > 0)
+            {
+                builder.append(" solved in round ").append(solvedRound[player]);
+            }
+            else
+            {
+                builder.append(" used ").append(EngineState.getMoves(states[player])).append(" guesses");
+                if (skipped[player] > 0)
+                {
+                    builder.append(", skipped ").append(skipped[player]).append(" rounds");
+                }
+            }
+            if (left[player])
+            {
+                builder.append(", left the game");
+            }
+        }
+        return builder.toString();
+    }
+
+    // Returns the standings after the last resolved round, shared by all players.
+    public String getStandings()
+    {
+        synchronized(this)
+        {
+            return standings;
+        }
+    }
+
+    // Returns the standings after the round of the player's last guess, a later round may be resolved already.
+    public String getStandings(Player player)
+    {
+        synchronized(this)
+        {
+            return moveStandings[players.indexOf(player)];
+        }
+    }
+
+    // Players of the game, the list does not change once the game is created.
+    public List<Player> getPlayers()
+    {
+        return players;
+    }
+
+    // Checks if players guess in synchronized rounds instead of on their own.
+    public boolean isRoundBased()
+    {
+        return roundBased;
+    }
+
+    // Returns SECRET to client to create its game state.
+    public int getSecret()
+    {
+        return this.SECRET;
     }
 
-    // Returns ANSWER to client to perform calculations.
-    public int getAnswer()
+    // Returns the engine with the rules of this game.
+    public GameEngine getEngine()
     {
-        return this.ANSWER;
+        return this.engine;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+import java.util.Random;
+
+/**
+ * Rules of a game type played in a Game lobby.
+ * An engine holds no per-game or per-player data, all of it lives in a packed long (see EngineState),
+ * so one engine is shared by every game on the server and a move never allocates.
+ * ServerThread only talks to the engine, so new game types plug in without touching the networking code.
+ */
+public interface GameEngine
+{
+    // Short name used to pick the engine, e.g. "guess".
+    String getName();
+
+    // Rules shown to players when the game starts.
+    String getRules();
+
+    // Maximum number of valid moves a player gets.
+    int getMaxMoves();
+
+    // Generates the secret shared by every player of a game session.
+    int createSecret(Random random);
+
+    // Fresh state for a player about to play against the given secret.
+    long createState(int secret);
+
+    // Applies the client's move and returns the new state. Invalid moves do not use up a move.
+    long applyMove(long state, String move);
+
+    // Checks if the player won or used all the moves.
+    boolean isFinished(long state);
+
+    // Message for the client about the last move applied to the state.
+    String getMessage(long state);
+
+    // Result line announced to every player of the game.
+    String getResult(long state, String playerName);
+
+    // A valid move picked at random, how bots play.
+    String randomMove(Random random);
+}
@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Players waiting for a game together.
+ * The public lobby is the server's matchmaking queue, it starts a game each time it has enough players.
+ * A private lobby has a code friends use to join it, it starts one game once full and then closes.
+ * No thread runs for a lobby while it waits, the player who fills it starts the Game.
+ * If the public lobby does not fill within the server's maximum wait, its game starts anyway,
+ * with bots in place of the missing players or short-handed.
+ */
+public class Lobby
+{
+    private final Server server;
+    private final String code;                  // Code to join, null for the public lobby
+    private final GameEngine engine;            // Rules of the games started here
+    private final int size;                     // Players needed to start a game
+    private final long createdAt;
+
+    // Players waiting, guarded by this lobby's lock.
+    private ArrayList<ServerThread> members = new ArrayList<ServerThread>();
+    private int generation;                     // Counts the games started, so a late fill timer does nothing
+    private boolean closed;
+
+    public Lobby(Server server, String code, GameEngine engine, int size)
+    {
+        this.server = server;
+        this.code = code;
+        this.engine = engine;
+        this.size = size;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    // Adds the player, starting a game if the lobby is now full.
+    // Returns false if the private lobby already started or expired.
+    public boolean join(ServerThread serverThread)
+    {
+        ArrayList<ServerThread> waiting;
+
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return false;
+            }
+            members.add(serverThread);
+            if (members.size() < size)
+            {
+                // The first player to wait starts the clock of the public lobby.
+                if (members.size() == 1 && code == null && server.getMaxWait() > 0)
+                {
+                    final int waitingGeneration = generation;
+                    server.getScheduler().schedule(() -> fill(waitingGeneration),
+                            server.getMaxWait(), TimeUnit.SECONDS);
+                }
+                return true;
+            }
+            waiting = takeMembers();
+        }
+
+        startGame(waiting);
+        return true;
+    }
+
+    // Takes out a player who left while waiting.
+    // Returns false if the player was already taken into a game, which will wake them.
+    public boolean leave(ServerThread serverThread)
+    {
+        synchronized (this)
+        {
+            if (!members.remove(serverThread))
+            {
+                return false;
+            }
+            if (members.isEmpty())
+            {
+                generation++;           // The fill timer of the public lobby was for the player who left.
+            }
+            return true;
+        }
+    }
+
+    // Starts the game of players who waited the maximum wait, if it has not started yet.
+    private void fill(int waitingGeneration)
+    {
+        ArrayList<ServerThread> waiting;
+
+        synchronized (this)
+        {
+            if (closed || generation != waitingGeneration || members.isEmpty())
+            {
+                return;
+            }
+            waiting = takeMembers();
+        }
+
+        startGame(waiting);
+    }
+
+    // Takes the waiting players for a game, the lobby starts over or closes. Called holding the lock.
+    private ArrayList<ServerThread> takeMembers()
+    {
+        ArrayList<ServerThread> waiting = members;
+        members = new ArrayList<ServerThread>();
+        generation++;
+        closed = (code != null);
+        return waiting;
+    }
+
+    // Starts a game with the players, bots take the places of missing players if the server uses them.
+    private void startGame(ArrayList<ServerThread> waiting)
+    {
+        if (code != null)
+        {
+            server.getLobbies().remove(this);
+        }
+
+        ArrayList<Player> players = new ArrayList<Player>(waiting);
+        if (server.usesBots())
+        {
+            for (int i = 1; players.size() < size; i++)
+            {
+                players.add(new Bot(i));
+            }
+        }
+        new Thread(new Game(server, engine, players)).start();
+    }
+
+    // Closes the lobby and returns the players still waiting in it.
+    public ArrayList<ServerThread> close()
+    {
+        synchronized (this)
+        {
+            ArrayList<ServerThread> waiting = takeMembers();
+            closed = true;
+            return waiting;
+        }
+    }
+
+    // Number of players still needed to start a game.
+    public int getMissingPlayers()
+    {
+        synchronized (this)
+        {
+            return size - members.size();
+        }
+    }
+
+    // Copy of the players waiting, to send them chat.
+    public ArrayList<ServerThread> getMembers()
+    {
+        synchronized (this)
+        {
+            return new ArrayList<ServerThread>(members);
+        }
+    }
+
+    public String getCode()
+    {
+        return code;
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Private lobbies by their code.
+ * Codes are 5 characters without look-alikes such as O and 0, and are looked up ignoring case.
+ * A lobby that has not filled up in 10 minutes expires, its players go to public matchmaking.
+ */
+public class LobbyRegistry implements Runnable
+{
+    private static final String CODE_CHARACTERS = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
+    private static final int CODE_LENGTH = 5;
+    private static final int LOBBY_EXPIRY = 10 * 60 * 1000;     // How long a lobby waits to fill up, in ms.
+    private static final int SWEEP_INTERVAL = 30 * 1000;        // How often expired lobbies are removed, in ms.
+
+    private final Server server;
+    private final ConcurrentHashMap<String, Lobby> lobbies = new ConcurrentHashMap<String, Lobby>();
+
+    public LobbyRegistry(Server server)
+    {
+        this.server = server;
+    }
+
+    // Starts removing expired lobbies in the background.
+    public void start()
+    {
+        Thread thread = new Thread(this, "lobby-sweeper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Creates a private lobby with a new code.
+    public Lobby create(GameEngine engine, int size)
+    {
+        while (true)
+        {
+            Lobby lobby = new Lobby(server, newCode(), engine, size);
+            if (lobbies.putIfAbsent(lobby.getCode(), lobby) == null)
+            {
+                return lobby;
+            }
+        }
+    }
+
+    // Returns the lobby with this code, null if there is none or it expired.
+    public Lobby find(String code)
+    {
+        Lobby lobby = lobbies.get(code.toUpperCase(Locale.ROOT));
+        if (lobby != null && isExpired(lobby, System.currentTimeMillis()))
+        {
+            expire(lobby);
+            return null;
+        }
+        return lobby;
+    }
+
+    // Removes a lobby that started its game.
+    public void remove(Lobby lobby)
+    {
+        lobbies.remove(lobby.getCode(), lobby);
+    }
+
+    public int size()
+    {
+        return lobbies.size();
+    }
+
+    // Removes expired lobbies every sweep interval.
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                Thread.sleep(SWEEP_INTERVAL);
+
+                long now = System.currentTimeMillis();
+                for (Lobby lobby : lobbies.values())
+                {
+                    if (isExpired(lobby, now))
+                    {
+                        expire(lobby);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isExpired(Lobby lobby, long now)
+    {
+        return now - lobby.getCreatedAt() >= LOBBY_EXPIRY;
+    }
+
+    // Closes the lobby, the players waiting in it are not left behind but go to public matchmaking.
+    private void expire(Lobby lobby)
+    {
+        if (lobbies.remove(lobby.getCode(), lobby))
+        {
+            ArrayList<ServerThread> waiting = lobby.close();
+            for (ServerThread serverThread : waiting)
+            {
+                server.addToQueue(serverThread);
+            }
+        }
+    }
+
+    private static String newCode()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] code = new char[CODE_LENGTH];
+        for (int i = 0; i < CODE_LENGTH; i++)
+        {
+            code[i] = CODE_CHARACTERS.charAt(random.nextInt(CODE_CHARACTERS.length()));
+        }
+        return new String(code);
+    }
+}
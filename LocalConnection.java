@@ -0,0 +1,56 @@
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Connection to the other end of a pair in the same process, messages are handed over in memory.
+ * Like a datagram connection a read returns one message, never parts of two.
+ * The server's warm-up plays games over it before it accepts clients.
+ */
+public class LocalConnection extends MessageConnection
+{
+    private final LinkedBlockingQueue<byte[]> outbound;
+    private volatile boolean closed;
+
+    private LocalConnection(LinkedBlockingQueue<byte[]> inbound, LinkedBlockingQueue<byte[]> outbound)
+    {
+        super(inbound);
+        this.outbound = outbound;
+    }
+
+    // Two connected ends, what one writes the other reads.
+    public static LocalConnection[] pair()
+    {
+        LinkedBlockingQueue<byte[]> one = new LinkedBlockingQueue<byte[]>();
+        LinkedBlockingQueue<byte[]> other = new LinkedBlockingQueue<byte[]>();
+        return new LocalConnection[] {new LocalConnection(one, other), new LocalConnection(other, one)};
+    }
+
+    // Nothing between the ends can break.
+    @Override
+    public boolean keepsAlive()
+    {
+        return true;
+    }
+
+    // Closed here, or the other end closed and everything it sent before was read.
+    @Override
+    public boolean isClosed()
+    {
+        return closed || atEndOfStream();
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        outbound.add(END_OF_STREAM);
+        inbound.add(END_OF_STREAM);
+    }
+
+    @Override
+    protected void writeMessage(byte[] buffer, int offset, int length)
+    {
+        byte[] message = new byte[length];
+        System.arraycopy(buffer, offset, message, 0, length);
+        outbound.add(message);
+    }
+}
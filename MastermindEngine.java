@@ -0,0 +1,161 @@
+import java.util.Random;
+
+/**
+ * Mastermind style game, crack a 3 digit code in 8 tries.
+ * After every guess the player is told how many digits are in the right place
+ * and how many are in the code but in the wrong place.
+ */
+public class MastermindEngine implements GameEngine
+{
+    private static final int CODE_LENGTH = 3;           // Digits in the code
+    private static final int MAX_GUESSES = 8;           // Maximum number of guesses
+
+    private static final String RULES = "Crack the 3 digit code, digits can repeat (e.g. 407).\n" +
+                                        "Try to guess the code generated in 8 tries.\n" +
+                                        "After each guess you get the digits in the right place and\n" +
+                                        "the digits in the code but in the wrong place.\n";
+
+    // Outcome code 0 is an invalid guess, otherwise 1 + correct * 4 + misplaced.
+    private static final int INVALID = 0;
+    private static final String INVALID_GUESS_MESSAGE = "Invalid Code! Please enter exactly 3 digits.";
+
+    // Messages for every outcome, built once so a guess never allocates.
+    private static final String MESSAGES[] = new String[1 + (CODE_LENGTH + 1) * 4];
+
+    static
+    {
+        MESSAGES[INVALID] = INVALID_GUESS_MESSAGE;
+        for (int correct = 0; correct <= CODE_LENGTH; correct++)
+        {
+            for (int misplaced = 0; correct + misplaced <= CODE_LENGTH; misplaced++)
+            {
+                MESSAGES[outcome(correct, misplaced)] = (correct == CODE_LENGTH)
+                        ? "The code is cracked! Congratulations"
+                        : correct + " in the right place, " + misplaced + " in the wrong place.";
+            }
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return "mastermind";
+    }
+
+    @Override
+    public String getRules()
+    {
+        return RULES;
+    }
+
+    @Override
+    public int getMaxMoves()
+    {
+        return MAX_GUESSES;
+    }
+
+    // The code is kept as a number, e.g. 7 is the code 007.
+    @Override
+    public int createSecret(Random random)
+    {
+        return random.nextInt(1000);
+    }
+
+    @Override
+    public long createState(int secret)
+    {
+        return EngineState.create(secret);
+    }
+
+    @Override
+    public long applyMove(long state, String move)
+    {
+        if (move.length() != CODE_LENGTH)
+        {
+            return EngineState.withMove(state, INVALID, false, false);
+        }
+        for (int i = 0; i < CODE_LENGTH; i++)
+        {
+            if (move.charAt(i) < '0' || move.charAt(i) > '9')
+            {
+                return EngineState.withMove(state, INVALID, false, false);
+            }
+        }
+
+        int secret = EngineState.getSecret(state);
+        int correct = 0;
+        int matched = 0;
+        int usedSecretDigits = 0;     // Bit i set when digit i of the secret is matched
+
+        // Digits in the right place
+        for (int i = 0; i < CODE_LENGTH; i++)
+        {
+            if (move.charAt(i) - '0' == digit(secret, i))
+            {
+                correct++;
+            }
+        }
+
+        // Digits anywhere in the code, each secret digit matched once
+        for (int i = 0; i < CODE_LENGTH; i++)
+        {
+            for (int j = 0; j < CODE_LENGTH; j++)
+            {
+                if ((usedSecretDigits & (1 << j)) == 0 && move.charAt(i) - '0' == digit(secret, j))
+                {
+                    usedSecretDigits |= 1 << j;
+                    matched++;
+                    break;
+                }
+            }
+        }
+
+        return EngineState.withMove(state, outcome(correct, matched - correct), true, correct == CODE_LENGTH);
+    }
+
+    @Override
+    public boolean isFinished(long state)
+    {
+        return EngineState.hasWon(state) || EngineState.getMoves(state) >= MAX_GUESSES;
+    }
+
+    @Override
+    public String getMessage(long state)
+    {
+        return MESSAGES[EngineState.getOutcome(state)];
+    }
+
+    @Override
+    public String getResult(long state, String playerName)
+    {
+        if (EngineState.hasWon(state))
+        {
+            return (playerName + " cracked the code in " + EngineState.getMoves(state) + " guesses.");
+        }
+        else
+        {
+            return (playerName + " lost.");
+        }
+    }
+
+    @Override
+    public String randomMove(Random random)
+    {
+        return String.format("%03d", random.nextInt(1000));
+    }
+
+    // Digit of the code at the position, counting from the left.
+    private static int digit(int code, int position)
+    {
+        for (int i = position + 1; i < CODE_LENGTH; i++)
+        {
+            code /= 10;
+        }
+        return code % 10;
+    }
+
+    private static int outcome(int correct, int misplaced)
+    {
+        return 1 + correct * 4 + misplaced;
+    }
+}
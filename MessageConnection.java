@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection that receives whole messages through a queue, shared by the local and datagram connections.
+ * Like reading a socket each read gets at most one message, never parts of two.
+ * Subclasses send the messages and put the ones they receive in the inbound queue.
+ */
+public abstract class MessageConnection implements Connection
+{
+    // Put in the inbound queue when the connection is closed, so reads see the end of the stream.
+    protected static final byte[] END_OF_STREAM = new byte[0];
+
+    // Messages received in order, waiting to be read.
+    protected final LinkedBlockingQueue<byte[]> inbound;
+    private byte[] unread;                      // Rest of a message bigger than the last read
+    private int unreadOffset;
+    private volatile int timeout;
+
+    private final InputStream inputStream = new InputStream()
+    {
+        @Override
+        public int read() throws IOException
+        {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            return readMessage(buffer, offset, length);
+        }
+
+        // Bytes of the next message that can be read without waiting.
+        @Override
+        public int available()
+        {
+            if (unread != null)
+            {
+                return unread.length - unreadOffset;
+            }
+            byte[] next = inbound.peek();
+            return (next == null) ? 0 : next.length;
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream()
+    {
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException
+        {
+            writeMessage(buffer, offset, length);
+        }
+    };
+
+    protected MessageConnection(LinkedBlockingQueue<byte[]> inbound)
+    {
+        this.inbound = inbound;
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    // The parts are joined into one message.
+    @Override
+    public void write(ByteBuffer[] parts, int count) throws IOException
+    {
+        int length = 0;
+        for (int i = 0; i < count; i++)
+        {
+            length += parts[i].remaining();
+        }
+        byte[] message = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int part = parts[i].remaining();
+            parts[i].get(message, offset, part);
+            offset += part;
+        }
+        writeMessage(message, 0, length);
+    }
+
+    @Override
+    public void setTimeout(int timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    // Sends one message, the buffer may be reused once this returns.
+    protected abstract void writeMessage(byte[] buffer, int offset, int length) throws IOException;
+
+    // Waits for the next received message, null when none came within the timeout (0 waits forever).
+    protected byte[] takeMessage(int timeout) throws IOException
+    {
+        try
+        {
+            return (timeout > 0) ? inbound.poll(timeout, TimeUnit.MILLISECONDS) : inbound.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Everything received was read and the end of the stream is next.
+    protected boolean atEndOfStream()
+    {
+        return unread == null && inbound.peek() == END_OF_STREAM;
+    }
+
+    private int readMessage(byte[] buffer, int offset, int length) throws IOException
+    {
+        if (unread == null)
+        {
+            unread = takeMessage(timeout);
+            if (unread == null)
+            {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            if (unread == END_OF_STREAM)
+            {
+                inbound.add(END_OF_STREAM);     // Later reads see the end too.
+                unread = null;
+                return -1;
+            }
+            unreadOffset = 0;
+        }
+
+        int count = Math.min(length, unread.length - unreadOffset);
+        System.arraycopy(unread, unreadOffset, buffer, offset, count);
+        unreadOffset += count;
+        if (unreadOffset == unread.length)
+        {
+            unread = null;
+        }
+        return count;
+    }
+}
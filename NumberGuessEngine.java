@@ -0,0 +1,139 @@
+import java.util.Random;
+
+/**
+ * The original game, guess a number between 0-9 in 4 tries.
+ * After every guess the player is told if the answer is smaller or bigger.
+ */
+public class NumberGuessEngine implements GameEngine
+{
+    private static final int MAX_GUESSES = 4;          // Maximum number of guesses
+    private static final int MIN_GUESS_RANGE = 0;      // The lowest integer allowed to guess
+    private static final int MAX_GUESS_RANGE = 9;      // The highest integer allowed to guess
+
+    private static final String RULES = "Guess a number between 0-9.\n" +
+                                        "Try to guess the number generated in 4 tries.\n";
+
+    // Outcome codes of a guess, index into MESSAGES.
+    private static final int INVALID = 0;
+    private static final int LOWER = 1;
+    private static final int HIGHER = 2;
+    private static final int CORRECT = 3;
+
+    private static final String MESSAGES[] = {
+            // Message for Invalid Guesses.
+            "Invalid Number! Please enter an integer between 0 - 9",
+            // Message if the guess was lower than the answer
+            "The number Guessed is smaller than the Answer.",
+            // Message if the guess was higher than the answer
+            "The number Guessed is bigger than the Answer.",
+            // Message if the guess was the answer.
+            "The Guess is correct! Congratulations"
+    };
+
+    @Override
+    public String getName()
+    {
+        return "guess";
+    }
+
+    @Override
+    public String getRules()
+    {
+        return RULES;
+    }
+
+    @Override
+    public int getMaxMoves()
+    {
+        return MAX_GUESSES;
+    }
+
+    @Override
+    public int createSecret(Random random)
+    {
+        return random.nextInt(MAX_GUESS_RANGE - MIN_GUESS_RANGE + 1) + MIN_GUESS_RANGE;
+    }
+
+    @Override
+    public long createState(int secret)
+    {
+        return EngineState.create(secret);
+    }
+
+    /*
+    *   If the guess is not a integer or out of range it is Invalid and not counted.
+    *   If the guess is in range but less than or grater than answer then it uses up a guess.
+    *   If the guess is correct, the player won. The winning guess is not counted.
+    */
+    @Override
+    public long applyMove(long state, String move)
+    {
+        int guessNumber;
+        int answer = EngineState.getSecret(state);
+
+        // Covert Guess to integer, if not a integer it is invalid.
+        try
+        {
+            guessNumber = Integer.parseInt(move);
+        }
+        catch (NumberFormatException e)
+        {
+            return EngineState.withMove(state, INVALID, false, false);
+        }
+
+        // Check if out of range.
+        if (guessNumber < MIN_GUESS_RANGE || guessNumber > MAX_GUESS_RANGE)
+        {
+            return EngineState.withMove(state, INVALID, false, false);
+        }
+
+        // Check if answer
+        else if (guessNumber == answer)
+        {
+            return EngineState.withMove(state, CORRECT, false, true);
+        }
+
+        // Check if less than answer
+        else if (guessNumber < answer)
+        {
+            return EngineState.withMove(state, LOWER, true, false);
+        }
+
+        // Check if greater than answer
+        else
+        {
+            return EngineState.withMove(state, HIGHER, true, false);
+        }
+    }
+
+    @Override
+    public boolean isFinished(long state)
+    {
+        return EngineState.hasWon(state) || EngineState.getMoves(state) >= MAX_GUESSES;
+    }
+
+    @Override
+    public String getMessage(long state)
+    {
+        return MESSAGES[EngineState.getOutcome(state)];
+    }
+
+    @Override
+    public String getResult(long state, String playerName)
+    {
+        if (EngineState.hasWon(state))
+        {
+            return (playerName + " won with " + (MAX_GUESSES - EngineState.getMoves(state)) + " guesses remaining.");
+        }
+        else
+        {
+            return (playerName + " lost.");
+        }
+    }
+
+    @Override
+    public String randomMove(Random random)
+    {
+        return Integer.toString(random.nextInt(MAX_GUESS_RANGE - MIN_GUESS_RANGE + 1) + MIN_GUESS_RANGE);
+    }
+}
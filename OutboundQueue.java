@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Outgoing messages of one connection, held until flushed.
+ * Everything written in one processing step leaves in a single gathering write,
+ * so a burst of small messages costs one system call and one packet instead of one each.
+ * Only the connection's own thread writes game messages to it.
+ * Chat from other clients waits in a separate bounded lane and only goes out after a game message,
+ * or on its own while the client waits, so it never delays the game.
+ */
+public class OutboundQueue extends OutputStream
+{
+    private static final byte[] NEWLINE = "\n".getBytes();
+    private static final ByteBuffer[] NO_PARTS = {};     // Idle clients hold no array until they are sent something
+    private static final int MAX_CHAT = 16;             // Chat frames kept for a client, the oldest are dropped
+    private static final int MAX_MESSAGE = 1024;        // Clients read a message into a buffer of this size
+
+    private final Connection connection;
+    private ByteBuffer[] parts = NO_PARTS;
+    private int count;                          // Parts waiting for the next flush
+    private int length;                         // Bytes waiting for the next flush
+
+    // Chat lane, fed by other clients' threads and guarded by this queue's lock.
+    private ArrayDeque<byte[]> chat;            // Created with the first chat for the client
+    private int droppedChat;                    // Frames dropped since the client was last sent chat
+
+    public OutboundQueue(Connection connection)
+    {
+        this.connection = connection;
+    }
+
+    @Override
+    public void write(int b)
+    {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    // The bytes are copied, the caller may reuse its array.
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+    {
+        if (length > 0)
+        {
+            add(ByteBuffer.wrap(Arrays.copyOfRange(buffer, offset, offset + length)));
+        }
+    }
+
+    // Queues a message to be shown together with the next one, on its own line.
+    public void queue(String message)
+    {
+        add(ByteBuffer.wrap(message.getBytes()));
+        add(ByteBuffer.wrap(NEWLINE));
+    }
+
+    // Queues a frame without copying it, for messages encoded once and never changed.
+    public void queue(byte[] frame)
+    {
+        add(ByteBuffer.wrap(frame));
+    }
+
+    // Queues a chat frame for the client, starting with a newline. Any thread may call it.
+    // When the client is too far behind the oldest frame is dropped.
+    public void queueChat(byte[] frame)
+    {
+        synchronized (this)
+        {
+            if (chat == null)
+            {
+                chat = new ArrayDeque<byte[]>();
+            }
+            if (chat.size() == MAX_CHAT)
+            {
+                chat.poll();
+                droppedChat++;
+            }
+            chat.add(frame);
+        }
+    }
+
+    // Checks if chat is waiting for the client.
+    public boolean hasChat()
+    {
+        synchronized (this)
+        {
+            return chat != null && !chat.isEmpty();
+        }
+    }
+
+    // Sends the queued message shown to the client, followed by as much chat as fits in the client's read.
+    // With nothing queued it sends just the chat.
+    public void flushMessage() throws IOException
+    {
+        synchronized (this)
+        {
+            if (droppedChat > 0)
+            {
+                addChat(("\n(" + droppedChat + " chat messages dropped)").getBytes());
+                droppedChat = 0;
+            }
+            while (chat != null && !chat.isEmpty() && length + chat.peek().length <= MAX_MESSAGE)
+            {
+                addChat(chat.poll());
+            }
+        }
+        flush();
+    }
+
+    // Sends everything queued in one write.
+    @Override
+    public void flush() throws IOException
+    {
+        if (count == 0)
+        {
+            return;
+        }
+        try
+        {
+            connection.write(parts, count);
+        }
+        finally
+        {
+            Arrays.fill(parts, 0, count, null);
+            count = 0;
+            length = 0;
+        }
+    }
+
+    // A chat frame on its own skips its leading newline.
+    private void addChat(byte[] frame)
+    {
+        add((count == 0) ? ByteBuffer.wrap(frame, 1, frame.length - 1) : ByteBuffer.wrap(frame));
+    }
+
+    private void add(ByteBuffer part)
+    {
+        if (count == parts.length)
+        {
+            parts = Arrays.copyOf(parts, Math.max(8, count * 2));
+        }
+        parts[count++] = part;
+        length += part.remaining();
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * A player in a Game, what Game needs from a client.
+ * ServerThread plays for a connected client, Bot plays in-process to fill a lobby.
+ */
+public interface Player
+{
+    // Player's username
+    String getClientName();
+
+    // Sets the game the player was put in.
+    void setGame(Game game);
+
+    // Wakes the player to start the game, and again when the results are ready.
+    void wake();
+
+    // Result line of the player, announced when the game ends.
+    String sendResult();
+
+    // Chat frame from another player, encoded once and shared by every recipient.
+    void deliverChat(byte[] frame);
+}
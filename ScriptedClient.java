@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Plays one game the way a user of Client would, without a user.
+ * Registers, picks the public lobby, makes random valid moves until the game is over and quits.
+ * Used by the server's warm-up and by the benchmarks, it counts the messages both ways
+ * and can time every guess until the server's answer.
+ */
+public class ScriptedClient
+{
+    private static final String RESULTS = "Results:";      // The play again question comes after the results
+
+    private final Connection connection;
+    private final String name;
+    private final GameEngine engine;
+    private final Random random;
+
+    private int reads;                          // Messages read from the server
+    private int writes;                         // Messages written to the server
+    private long firstMessageAt;                // When the first message was read, System.nanoTime()
+    private long[] guessTimes = new long[0];    // When each guess was answered, System.nanoTime()
+    private long[] guessLatencies = new long[0];
+    private int guesses;
+    private boolean timing;
+
+    public ScriptedClient(Connection connection, String name, GameEngine engine)
+    {
+        this.connection = connection;
+        this.name = name;
+        this.engine = engine;
+        this.random = new Random(name.hashCode());
+    }
+
+    // Times every guess, read them with getGuessLatencies.
+    public void timeGuesses()
+    {
+        timing = true;
+        guessTimes = new long[16];
+        guessLatencies = new long[16];
+    }
+
+    // Plays until the server says the game is over, then closes the connection.
+    public void play() throws IOException
+    {
+        InputStream inputStream = connection.getInputStream();
+        OutputStream outputStream = connection.getOutputStream();
+        byte[] buffer = new byte[1024];
+        boolean chosenLobby = false;
+        boolean finished = false;
+        long guessSentAt = 0;
+
+        try
+        {
+            while (true)
+            {
+                int length = inputStream.read(buffer);
+                if (length < 0)
+                {
+                    break;
+                }
+                long now = System.nanoTime();
+                if (reads++ == 0)
+                {
+                    firstMessageAt = now;
+                }
+                if (guessSentAt != 0)
+                {
+                    recordGuess(guessSentAt, now);
+                    guessSentAt = 0;
+                }
+                String message = new String(buffer, 0, length);
+
+                String answer;
+                if (message.equals("GO"))
+                {
+                    break;
+                }
+                else if (message.equals("R"))
+                {
+                    answer = name;
+                }
+                else if (message.equals("G"))
+                {
+                    if (!chosenLobby)
+                    {
+                        answer = "p";
+                        chosenLobby = true;
+                    }
+                    else if (finished)
+                    {
+                        answer = "q";
+                    }
+                    else
+                    {
+                        answer = engine.randomMove(random);
+                        guessSentAt = timing ? System.nanoTime() : 0;
+                    }
+                }
+                else
+                {
+                    finished |= message.contains(RESULTS);
+                    answer = "c";
+                }
+                outputStream.write(answer.getBytes());
+                writes++;
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    private void recordGuess(long sentAt, long answeredAt)
+    {
+        if (guesses == guessTimes.length)
+        {
+            guessTimes = Arrays.copyOf(guessTimes, guesses * 2);
+            guessLatencies = Arrays.copyOf(guessLatencies, guesses * 2);
+        }
+        guessTimes[guesses] = answeredAt;
+        guessLatencies[guesses] = answeredAt - sentAt;
+        guesses++;
+    }
+
+    public int getReads()
+    {
+        return reads;
+    }
+
+    public int getWrites()
+    {
+        return writes;
+    }
+
+    public long getFirstMessageAt()
+    {
+        return firstMessageAt;
+    }
+
+    // When each timed guess was answered, System.nanoTime().
+    public long[] getGuessTimes()
+    {
+        return Arrays.copyOf(guessTimes, guesses);
+    }
+
+    // Time from each timed guess until the server's answer, in nanoseconds.
+    public long[] getGuessLatencies()
+    {
+        return Arrays.copyOf(guessLatencies, guesses);
+    }
+}
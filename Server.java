@@ -1,9 +1,12 @@
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Server class handles a pool of ServerThread to handle game play
@@ -15,90 +18,341 @@ public class Server
      * Connects to port 61616 of the server, which Client class is also using.
      * Connects to it.
      * When client connects sends the socket to ServerThread class for gameplay.
-     * When there are 3 clients, starts the game.
+     * Clients wait in the public lobby, or in a private lobby with friends.
+     * When a lobby has 3 clients, it starts the game.
      */
 
-    // A list of clients
-    private ArrayList<ServerThread> queue = new ArrayList<ServerThread>();
     private final static int BUFFERSIZE = 1024;
     // Length of players each game
     private final static int GAME_SIZE = 3;
 
     // Message to register Client
-    private final String REGISTER_MESSAGE = "Register your username: (Maximum 25 characters)";
-    private final String REGISTER_COMMAND = "R"; // command to tell client to register.
+    private final static String REGISTER_MESSAGE = "Register your username: (Maximum 25 characters)";
+    private final static String REGISTER_COMMAND = "R"; // command to tell client to register.
+    private final static String INVALID_NAME_MESSAGE =
+            "Invalid username! Use 1-25 letters, digits, '_', '-' or '.'. Try again:";
+    private final static String NAME_TAKEN_MESSAGE = "Username is already taken. Try again:";
+    private final static String INPUT_COMMAND = "G"; // command to get input from client.
+
+    // Messages to choose a lobby
+    private final static String LOBBY_CHOICE_MESSAGE = "Enter 'p' to play with anyone, 'n' to create a private lobby " +
+            "('n mastermind' for another game),\nor a lobby code or a friend's name to join their lobby.";
+    private final static String LOBBY_CREATED_MESSAGE = "Private lobby created. Friends can join with the code: ";
+    private final static String NO_LOBBY_MESSAGE = "No open lobby with that code or player. Try again.";
+    private final static String PUBLIC_CHOICE = "p";
+    private final static String CREATE_CHOICE = "n";
     private final static String SERVER_START_MESSAGE = "Server is running.\n";
+    private final static String UNKNOWN_GAME_MESSAGE = "Unknown game type: ";
+    private final static String INVALID_OPTION_MESSAGE = "Expected a number of 0 or more: ";
+    private final static String CHAT_HINT =
+            "Start a line with '/' to chat with your lobby, or with '/all' to chat with everyone waiting.\n";
+
+    private final static String ROUNDS_OPTION = "rounds";
+    private final static String UDP_OPTION = "udp";
+    private final static String WAIT_OPTION = "wait=";             // Maximum wait for a full lobby in seconds, 0 waits forever
+    private final static String SHORTHANDED_OPTION = "shorthanded"; // Start without bots after the maximum wait
+    private final static String NAGLE_OPTION = "nagle";            // Leave Nagle's algorithm on for TCP clients
+    private final static String WARMUP_OPTION = "warmup=";         // Games played in-process before accepting clients
+    private final static String EXIT_OPTION = "exit";              // Stop after the warm-up, to build a class archive
+    private final static int DEFAULT_WARMUP_GAMES = 100;
+    private final static String WARMUP_NAME = "warmup";
+    private final static int DEFAULT_MAX_WAIT = 60;
+    private final static String UDP_START_MESSAGE = "Also accepting datagram clients.\n";
+    private final static int PORT = 61616;
 
+    // Rules of the games played on this server.
+    private final GameEngine engine;
+    // If players guess in synchronized rounds with standings, instead of on their own.
+    private final boolean roundBased;
+    // Hot state of every connected client.
+    private final SessionTable sessions = new SessionTable();
+    // Usernames of the clients online.
+    private final UsernameRegistry usernames = new UsernameRegistry();
+    // Clients waiting for a game to start or for the results, they get the /all chat.
+    private final Set<ServerThread> waitingRoom = ConcurrentHashMap.newKeySet();
+    // Public matchmaking queue.
+    private final Lobby publicLobby;
+    // Private lobbies by code.
+    private final LobbyRegistry lobbies = new LobbyRegistry(this);
+    // How long the public lobby waits to fill before starting anyway in seconds, 0 waits forever.
+    private int maxWait = DEFAULT_MAX_WAIT;
+    // If bots take the places of missing players, or the game starts short-handed.
+    private boolean bots = true;
+    // Runs the lobbies' maximum wait timers.
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lobby-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Server(GameEngine engine, boolean roundBased)
+    {
+        this.engine = engine;
+        this.roundBased = roundBased;
+        this.publicLobby = new Lobby(this, null, engine, GAME_SIZE);
+    }
+
+    // Optional arguments pick the game type, round based play, the datagram transport,
+    // how long a lobby waits to fill and how many games warm the server up before it accepts clients,
+    // e.g. java Server mastermind rounds udp wait=30 shorthanded warmup=500
     public static void main(String [] args)
     {
-        //Creating a threadPool of 15 threads to save resource.
-        ExecutorService executor = Executors.newFixedThreadPool(15);
-        Server server = new Server();
+        GameEngine engine = engineFor("guess");
+        boolean roundBased = false;
+        boolean udp = false;
+        int maxWait = DEFAULT_MAX_WAIT;
+        boolean bots = true;
+        boolean noDelay = true;
+        int warmupGames = DEFAULT_WARMUP_GAMES;
+        boolean exit = false;
+        for (String arg : args)
+        {
+            if (arg.equalsIgnoreCase(ROUNDS_OPTION))
+            {
+                roundBased = true;
+            }
+            else if (arg.equalsIgnoreCase(UDP_OPTION))
+            {
+                udp = true;
+            }
+            else if (arg.toLowerCase().startsWith(WAIT_OPTION))
+            {
+                maxWait = optionValue(arg, WAIT_OPTION);
+                if (maxWait < 0)
+                {
+                    System.out.println(INVALID_OPTION_MESSAGE + arg);
+                    return;
+                }
+            }
+            else if (arg.equalsIgnoreCase(SHORTHANDED_OPTION))
+            {
+                bots = false;
+            }
+            else if (arg.equalsIgnoreCase(NAGLE_OPTION))
+            {
+                noDelay = false;
+            }
+            else if (arg.toLowerCase().startsWith(WARMUP_OPTION))
+            {
+                warmupGames = optionValue(arg, WARMUP_OPTION);
+                if (warmupGames < 0)
+                {
+                    System.out.println(INVALID_OPTION_MESSAGE + arg);
+                    return;
+                }
+            }
+            else if (arg.equalsIgnoreCase(EXIT_OPTION))
+            {
+                exit = true;
+            }
+            else if ((engine = engineFor(arg)) == null)
+            {
+                System.out.println(UNKNOWN_GAME_MESSAGE + arg);
+                return;
+            }
+        }
 
-        //Try to run game.
-        server.resetQueue();
+        //Creating a threadPool of 15 threads to save resource.
+        final ExecutorService executor = Executors.newFixedThreadPool(15);
+        final Server server = new Server(engine, roundBased);
+        server.setMaxWait(maxWait, bots);
 
-        ServerSocket serverSocket = null;
-        Socket clientSocket = null;
+        // Expire private lobbies nobody fills.
+        server.getLobbies().start();
 
         try
         {
-            serverSocket = new ServerSocket(61616);       //Create a serversocket which binds to the server port
+            // Plays games before the first client comes, so it does not pay for the cold start.
+            long warmupStart = System.currentTimeMillis();
+            server.warmUp(executor, warmupGames);
+            System.out.println("Warmed up with " + warmupGames + " games in "
+                    + (System.currentTimeMillis() - warmupStart) + " ms.");
+            if (exit)
+            {
+                System.exit(0);
+            }
+
+            //Create a server socket which binds to the server port
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(PORT));
 
             // When server starts prints to server screen
             System.out.println(SERVER_START_MESSAGE);
 
-            // Accepts clients and adds to thread pool.
-            while(true)
+            // Datagram clients use the same port number, TCP stays available for the others.
+            if (udp)
             {
-                // When client requests to connect, acccepts the connection and the socket returned will be stored.
-                clientSocket = serverSocket.accept();           // Create a connection between server and client
-
-                // Create a thread, which sends clientSocket to ServerThread class for game
-                executor.execute(new ServerThread(clientSocket, server));  // Run the thread using threadPool
+                DatagramTransport.listen(PORT, connection -> executor.execute(new ServerThread(connection, server)));
+                System.out.println(UDP_START_MESSAGE);
             }
 
+            server.acceptClients(serverChannel, executor, noDelay);
         }
         catch(IOException e)
         {
             e.printStackTrace();
         }
+        catch(InterruptedException e)
+        {
+            e.printStackTrace();
+        }
     }
 
-    // Adds the client into game queue.
-    public void addToQueue(ServerThread serverThread)
+    // Plays games between scripted clients over in-memory connections,
+    // through the real lobby, Game and ServerThread code and the thread pool that serves clients.
+    // Classes are loaded, message tables built and the guess path compiled before the first client connects.
+    // The debug output of these games is not printed.
+    public void warmUp(ExecutorService executor, int games) throws InterruptedException
     {
-        synchronized (this.queue)
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try
         {
-            queue.add(serverThread);
+            for (int game = 0; game < games; game++)
+            {
+                Thread[] clients = new Thread[GAME_SIZE];
+                for (int i = 0; i < GAME_SIZE; i++)
+                {
+                    LocalConnection[] ends = LocalConnection.pair();
+                    executor.execute(new ServerThread(ends[0], this));
+
+                    final ScriptedClient client = new ScriptedClient(ends[1], WARMUP_NAME + game + "." + i, engine);
+                    clients[i] = new Thread(() -> {
+                        try
+                        {
+                            client.play();
+                        }
+                        catch (IOException e)
+                        {
+                            e.printStackTrace();
+                        }
+                    });
+                    clients[i].start();
+                }
+                for (Thread client : clients)
+                {
+                    client.join();
+                }
+            }
+        }
+        finally
+        {
+            System.setOut(out);
         }
     }
 
-    // Gets the queue of serverThreds
-    public ArrayList<ServerThread> getQueue()
+    // Accepts TCP clients and adds them to the thread pool, until the server socket is closed.
+    public void acceptClients(ServerSocketChannel serverChannel, ExecutorService executor, boolean noDelay)
+            throws IOException
     {
-        synchronized (this.queue)
+        while(true)
         {
-            return queue;
+            // When client requests to connect, acccepts the connection.
+            SocketChannel clientChannel = serverChannel.accept();   // Create a connection between server and client
+
+            // Create a thread, which sends the connection to ServerThread class for game
+            executor.execute(new ServerThread(new SocketConnection(clientChannel, noDelay), this));
         }
     }
 
-    // Clears the queue for next game
-    public void resetQueue()
+    // Returns the engine of the game type with this name, null if there is none.
+    public static GameEngine engineFor(String name)
     {
-        // Clear the queue.
-        if (queue.size() >= GAME_SIZE)
+        GameEngine[] engines = {new NumberGuessEngine(), new MastermindEngine()};
+        for (GameEngine engine : engines)
         {
-            for (int i = 0; i < GAME_SIZE; i++)
+            if (engine.getName().equalsIgnoreCase(name))
             {
-                queue.remove(0);
+                return engine;
             }
         }
-        new Thread(new Game(this)).start();
+        return null;
+    }
+
+    // Returns the number after the option's name, -1 if it is not a number of 0 or more.
+    private static int optionValue(String arg, String option)
+    {
+        try
+        {
+            return Math.max(Integer.parseInt(arg.substring(option.length())), -1);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    // Gets the engine with the rules of the games.
+    public GameEngine getEngine()
+    {
+        return engine;
+    }
+
+    // Gets the usernames of the clients online.
+    public UsernameRegistry getUsernames()
+    {
+        return usernames;
+    }
+
+    // Gets the table with the state of every connected client.
+    public SessionTable getSessions()
+    {
+        return sessions;
+    }
+
+    // Gets the clients waiting for a game to start or for the results.
+    public Set<ServerThread> getWaitingRoom()
+    {
+        return waitingRoom;
+    }
+
+    // Checks if games on this server are played in synchronized rounds.
+    public boolean isRoundBased()
+    {
+        return roundBased;
+    }
+
+    // Adds the client into the public game queue, starts a game when there are enough players.
+    public void addToQueue(ServerThread serverThread)
+    {
+        serverThread.setLobby(publicLobby);
+        publicLobby.join(serverThread);
+    }
+
+    // Sets how long the public lobby waits to fill in seconds, 0 waits forever,
+    // and if bots or a short-handed game make up for missing players.
+    public void setMaxWait(int maxWait, boolean bots)
+    {
+        this.maxWait = maxWait;
+        this.bots = bots;
+    }
+
+    public int getMaxWait()
+    {
+        return maxWait;
+    }
+
+    public boolean usesBots()
+    {
+        return bots;
+    }
+
+    // Gets the timers of the lobbies.
+    public ScheduledExecutorService getScheduler()
+    {
+        return scheduler;
+    }
+
+    // Gets the private lobbies.
+    public LobbyRegistry getLobbies()
+    {
+        return lobbies;
     }
 
     // Register Client to Server
-    public void registerClient(InputStream inputStream, OutputStream outputStream, ServerThread serverThread)
+    // Asks again until the client gives a valid username that nobody online is using.
+    // Returns false if the client left, or its connection failed, before it was added to a lobby.
+    public boolean registerClient(InputStream inputStream, OutboundQueue outputStream, ServerThread serverThread)
     {
         byte[] buffer = new byte[BUFFERSIZE];
 
@@ -106,28 +360,130 @@ public class Server
         {
             // Register client to Server
             sendOutput(outputStream, inputStream, REGISTER_MESSAGE);
-            outputStream.write(REGISTER_COMMAND.getBytes());  // Register command
-            inputStream.read(buffer);
+            while (true)
+            {
+                outputStream.write(REGISTER_COMMAND.getBytes());  // Register command
+                outputStream.flush();
+                int length = inputStream.read(buffer);
+                if (length < 0)
+                {
+                    throw new EOFException();       // Client left before registering.
+                }
 
-            serverThread.setClientName(new String(buffer).replace("\0", ""));
-            sendOutput(outputStream,inputStream, (serverThread.getClientName() + " has been registered." +
-                    "\nWaiting for " + (GAME_SIZE - (queue.size() + 1)) + " more players to start the game.\n"));
+                String name = UsernameRegistry.validate(buffer, length);
+                if (name == null)
+                {
+                    sendOutput(outputStream, inputStream, INVALID_NAME_MESSAGE);
+                }
+                else if (!usernames.reserve(name, serverThread))
+                {
+                    sendOutput(outputStream, inputStream, NAME_TAKEN_MESSAGE);
+                }
+                else
+                {
+                    serverThread.setClientName(name);
+                    break;
+                }
+            }
+            // Shown together with the lobby choice.
+            outputStream.queue(serverThread.getClientName() + " has been registered.");
 
-            // Add them to waiting queue
-            addToQueue(serverThread);
+            // Add them to a waiting queue
+            chooseLobby(inputStream, outputStream, serverThread);
+            return true;
+        }
+        catch (EOFException e)
+        {
+            System.out.println("Client left before joining a lobby.");
         }
         catch (IOException e)
         {
             e.printStackTrace();
         }
+        return false;
     }
 
-    // Sends output message to client and waits for the continue message.
-    public static void sendOutput(OutputStream outputStream, InputStream inputStream, String output) throws IOException
+    // Asks the client to play in public, create a private lobby or join one, and adds them to it.
+    // A private lobby is joined by its code, or by the name of a friend waiting in it.
+    private void chooseLobby(InputStream inputStream, OutboundQueue outputStream, ServerThread serverThread)
+            throws IOException
+    {
+        byte[] buffer = new byte[BUFFERSIZE];
+
+        while (true)
+        {
+            sendOutput(outputStream, inputStream, LOBBY_CHOICE_MESSAGE);
+            outputStream.write(INPUT_COMMAND.getBytes());
+            outputStream.flush();
+            int length = inputStream.read(buffer);
+            if (length < 0)
+            {
+                throw new EOFException();       // Client left before choosing.
+            }
+            String[] choice = new String(buffer, 0, length).trim().split("\\s+");
+
+            Lobby lobby;
+            if (choice[0].equalsIgnoreCase(PUBLIC_CHOICE))
+            {
+                sendWaitingMessage(outputStream, inputStream, publicLobby);
+                addToQueue(serverThread);
+                return;
+            }
+            else if (choice[0].equalsIgnoreCase(CREATE_CHOICE))
+            {
+                GameEngine lobbyEngine = (choice.length > 1) ? engineFor(choice[1]) : engine;
+                if (lobbyEngine == null)
+                {
+                    outputStream.queue(UNKNOWN_GAME_MESSAGE + choice[1]);
+                    continue;
+                }
+                lobby = lobbies.create(lobbyEngine, GAME_SIZE);
+                outputStream.queue(LOBBY_CREATED_MESSAGE + lobby.getCode());
+            }
+            else
+            {
+                lobby = lobbies.find(choice[0]);
+                if (lobby == null)
+                {
+                    ServerThread friend = usernames.find(choice[0]);
+                    lobby = (friend != null) ? friend.getLobby() : null;
+                }
+                if (lobby == null || lobby.getCode() == null)
+                {
+                    outputStream.queue(NO_LOBBY_MESSAGE);
+                    continue;
+                }
+            }
+
+            sendWaitingMessage(outputStream, inputStream, lobby);
+            serverThread.setLobby(lobby);
+            if (lobby.join(serverThread))
+            {
+                return;
+            }
+            outputStream.queue(NO_LOBBY_MESSAGE);      // Started or expired meanwhile.
+        }
+    }
+
+    // Tells the client how many more players the lobby needs, counting the client.
+    private static void sendWaitingMessage(OutboundQueue outputStream, InputStream inputStream, Lobby lobby)
+            throws IOException
+    {
+        sendOutput(outputStream, inputStream,
+                "Waiting for " + (lobby.getMissingPlayers() - 1) + " more players to start the game.\n" + CHAT_HINT);
+    }
+
+    // Sends output message to client and waits for the continue message, throws EOFException if the client left.
+    // Messages queued before it are shown with it, sent in the same write, followed by chat for the client.
+    public static void sendOutput(OutboundQueue outputStream, InputStream inputStream, String output) throws IOException
     {
         byte [] buffer = new byte[BUFFERSIZE];
 
         outputStream.write(output.getBytes());
-        inputStream.read(buffer);
+        outputStream.flushMessage();
+        if (inputStream.read(buffer) < 0)
+        {
+            throw new EOFException();       // Client left.
+        }
     }
 }
@@ -1,67 +1,72 @@
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Gets client's socket from server class.
  * Gets guesses from client and sends messages regarding game back to client.
  * Game class is used to know when to start the game, wait for other players.
+ * The client's game state and flags live in the server's SessionTable, in this client's slot.
  */
-public class ServerThread implements Runnable
+public class ServerThread implements Runnable, Player
 {
 
-    private Socket clientSocket;                // Client socket
+    private Connection connection;              // Client connection, over TCP or datagrams
     private String clientName;                  // Client's username
-    private int guessCounter = 0;               // Counts the numbers guessed
     private Server server;                      // Server
     private Game game;                          // Game lobby
+    private Lobby lobby;                        // Lobby the client waits or waited in
 
-    private int answer;                         // The answer to win the game, get from Game lobby
+    private GameEngine engine;                  // Rules of the game, get from Game lobby
+    private SessionTable sessions;              // Server's session table
+    private int slot;                           // Client's slot in the session table
+    private int sessionId;                      // Client's session, the slot is reused once it is closed
 
     // IO
-    private InputStream inputStream;            // Gets inputStream from Client to read from client.
-    private OutputStream outputStream;          // Gets outputStream from Client to write to client.
+    private ChatInputStream inputStream;        // Reads the client's answers, passing its chat to chat().
 
-    private boolean clientWon = false;          // To check the state if client won.
-    private boolean hold;                       // To check if client needs to be on hold
-    private boolean timedout = false;           // To check if client has timedout
+    // Client's chat allowance, refilled over time
+    private int chatTokens = CHAT_BURST;
+    private long chatRefilledAt;
+    private OutboundQueue outputStream;         // Queues messages to the client, each step is sent in one write.
 
     //Final variables
-    private final int MAX_GUESSES = 4;          // Maximum number of guesses
-    private final int MIN_GUESS_RANGE = 0;      // The lowest integer allowed to guess
-    private final int MAX_GUESS_RANGE = 9;      // The highest integer allowed to guess
-    private final int BUFFER = 1024;            // Buffer size
-    private final int STAY_ALIVE_INTERVAL = 20; // How often to send Stay Alive messages for Client.
-    private final int TIMEOUT_INTERVAL = 30;    // How long to wait for the client before timing out.
+    private static final int BUFFER = 1024;            // Buffer size
+    private static final int STAY_ALIVE_INTERVAL = 20; // How often to send Stay Alive messages for Client.
+    private static final int TIMEOUT_INTERVAL = 30;    // How long to wait for the client before timing out.
+    private static final int CHAT_POLL_INTERVAL = 250; // How often a waiting client is checked for chat, in ms.
+    private static final int CHAT_BURST = 5;           // Chat lines a client can send at once
+    private static final int CHAT_REFILL = 1000;       // Time to get another chat line allowed, in ms.
+    private static final int MAX_CHAT_LENGTH = 200;    // Longer chat lines are cut
 
     //Stable Messages to Client
 
-    // Message for Invalid Guesses.
-    private final String INVALID_GUESS_MESSAGE = "Invalid Number! Please enter an integer between 0 - 9";
-    // Message if the guess was lower than the answer
-    private final String GUESS_LOWER_THAN_ANSWER_MESSAGE = "The number Guessed is smaller than the Answer.";
-    // Message if the guess was higher than the answer
-    private final String GUESS_HIGHER_THAN_ANSWER_MESSAGE = "The number Guessed is bigger than the Answer.";
-    // Message if the guess was the answer.
-    private final String CORRECT_GUESS = "The Guess is correct! Congratulations";
     // Message for client to decide to play again
-    private final String PLAYAGAIN_MESSAGE = "Enter 'p' to play again or 'q' to quit.";
+    private static final String PLAYAGAIN_MESSAGE = "Enter 'p' to play again or 'q' to quit.";
     // Message for client to wait for other players
-    private final String WAIT_MESSAGE = "Waiting for other Players.";
+    private static final String WAIT_MESSAGE = "Waiting for other Players.";
     // Message for client to wait for other players to finish the game.
-    private final String WAIT_TO_FINISH_MESSAGE = "Waiting for other players to finish the game to get results.";
+    private static final String WAIT_TO_FINISH_MESSAGE = "Waiting for other players to finish the game to get results.";
 
     // Commands to check if the client wants to continue playing or quit.
-    private final String PLAY = "p";
-    private final String QUIT = "q";
+    private static final String PLAY = "p";
+    private static final String QUIT = "q";
     //Command to quit Guessing
-    private final String EXIT = "e";
+    private static final String EXIT = "e";
 
 
     // Blank line between turns
-    private final String BLANK_LINE = "\n";
+    private static final String BLANK_LINE = "\n";
+
+    // Chat
+    private static final String ALL_COMMAND = "all";   // Chat to everyone waiting, e.g. /all hello
+    private static final byte[] CHAT_LIMIT_FRAME = "\n(You are chatting too fast, message dropped.)".getBytes();
+    private static final byte[] NO_CHAT_FRAME =
+            "\n(No one to chat with here, use /all to chat with everyone waiting.)".getBytes();
 
     //Game states
     //There are 3 game states,
@@ -69,18 +74,21 @@ public class ServerThread implements Runnable
     // G - Guess where client guesses the number
     // GO - Game Over, either if client used 4 tries or Won the game.
     // SA - Stay Alive
-    private final String STATE[] = {"R","G", "GO", "SA"};
+    private static final String STATE[] = {"R","G", "GO", "SA"};
 
-    //Gets client's socket and server from server class
-    // Assigns the parameters and input and output streams
-    public ServerThread(Socket ClientSocket, Server server)
+    //Gets client's connection and server from server class
+    // Assigns the parameters, a session slot and input and output streams
+    public ServerThread(Connection connection, Server server)
     {
-        this.clientSocket = ClientSocket;
+        this.connection = connection;
         this.server = server;
+        this.sessions = server.getSessions();
+        this.slot = sessions.open();
+        this.sessionId = sessions.getSessionId(slot);
         try
         {
-            inputStream = clientSocket.getInputStream();
-            outputStream = clientSocket.getOutputStream();
+            inputStream = new ChatInputStream(connection.getInputStream(), this::chat);
+            outputStream = new OutboundQueue(connection);
         }
         catch (IOException e)
         {
@@ -96,31 +104,45 @@ public class ServerThread implements Runnable
         //When a new client joins server
         System.out.println("New Client joined.\n" + Thread.activeCount() + " threads are running on server.\n");
 
-        //Registers this thread with Server
-        server.registerClient(inputStream, outputStream, this);
-
         try
         {
+            //Registers this thread with Server
+            if (!server.registerClient(inputStream, outputStream, this))
+            {
+                connection.close();
+                return;
+            }
+
             do
             {
-                // Wait for more players to join the game.
-                stayAlive();
+                // Wait for more players to join the game, the client may leave meanwhile.
+                if (!stayAlive())
+                {
+                    return;
+                }
 
                 // Starts game
                 startGame(game);
 
                 // Notifies game about this client finishing the game
-                game.playerFinished();
+                game.playerFinished(this);
 
-                // Checks if timed out.
-                if(timedout)
+                // Checks if timed out, the client is disconnected and handled like one that left.
+                if(sessions.hasFlag(slot, SessionTable.TIMED_OUT))
                 {
-                    return;
+                    disconnect();
                 }
 
                 // Wait for other clients to finish the game
                 stayAlive();
 
+                // A client that left or timed out during the game gets no results, but counts as delivered.
+                if (connection.isClosed())
+                {
+                    game.resultsDelivered();
+                    return;
+                }
+
                 // Print results of each player in game.
                 game.getResults(inputStream, outputStream);
             } while (playAgain(server));                    // Loops client chose to quit.
@@ -128,24 +150,38 @@ public class ServerThread implements Runnable
             // Final Stage, Game Over - GO
             // Sends message to client that the game finished.
             outputStream.write(STATE[2].getBytes());    //Game over.
-            clientSocket.close();
+            outputStream.flush();
+            connection.close();
 
         }
+        catch (EOFException e)              // If the client left.
+        {
+            System.out.println(this.clientName + " left.");
+        }
         catch (SocketTimeoutException e)    // If socket timeout.
         {
-            return;
+            disconnect();
         }
         catch (IOException e)
         {
             e.printStackTrace();
         }
+        finally
+        {
+            // Frees the username and the slot for the next client.
+            server.getUsernames().release(clientName, this);
+            sessions.close(slot);
+        }
     }
 
-    // Gets answer from game
+    // Gets the engine and secret from game
     // Sends appropriate messages to client to start playing, guess number and wait for other players.
+    // In round based games the guess is resolved by the game together with the other players' guesses.
     private void startGame(Game game)
     {
-        this.answer = game.getAnswer();     // Get's the required answer from game.
+        this.engine = game.getEngine();
+        long state = engine.createState(game.getSecret());     // Fresh state for the game's secret.
+        sessions.setState(slot, state);
 
         try
         {
@@ -155,17 +191,19 @@ public class ServerThread implements Runnable
             // Starts the game.
 
             // If client is idle for 30 seconds, the connection is terminated and client lost the game.
-            clientSocket.setSoTimeout(TIMEOUT_INTERVAL*1000);
+            connection.setTimeout(TIMEOUT_INTERVAL*1000);
 
-            //Sends welcome message to client
-            Server.sendOutput(outputStream, inputStream, game.welcomePlayers());
+            //Welcome message to client, sent with the first prompt
+            outputStream.queue(game.welcomePlayers());
 
-            // Allows the client to guess until the tries are over or Client won.
-            while (guessCounter < MAX_GUESSES && !clientWon)
+            // Allows the client to guess until the engine says the game is finished.
+            while (!engine.isFinished(state))
             {
+                int guessCounter = EngineState.getMoves(state);
+
                 //Sends message to tell the client to proceed guessing and indicates the no of guesses left.
                 // Message to tell the Client to proceed guessing.
-                String prcoeedToGuessMessage = clientName + ": You have " + (MAX_GUESSES - guessCounter)
+                String prcoeedToGuessMessage = clientName + ": You have " + (engine.getMaxMoves() - guessCounter)
                         + " guesses left." +("\n" + clientName
                         + ": Proceed with Guess no " + (guessCounter+1));
 
@@ -182,25 +220,21 @@ public class ServerThread implements Runnable
                     return;
                 }
 
-                // Checks the validity
-                outputMessage = guessValidity(clientInput);
-
-                //If it is a valid guess but not answer, then increments the guess counter.
-                if (outputMessage.equals(GUESS_LOWER_THAN_ANSWER_MESSAGE) ||
-                        outputMessage.equals(GUESS_HIGHER_THAN_ANSWER_MESSAGE))
+                // Applies the guess, the engine counts it and checks if the client won.
+                if (game.isRoundBased())
                 {
-                    guessCounter++;
+                    state = game.submitMove(this, clientInput);     // Waits for the round to be resolved.
+                    outputMessage = engine.getMessage(state) + "\n" + game.getStandings(this);
                 }
-
-                //If the guess was correct then ends the loop.
-                else if(outputMessage.equals(CORRECT_GUESS))
+                else
                 {
-                    clientWon = true;
+                    state = engine.applyMove(state, clientInput);
+                    outputMessage = engine.getMessage(state);
                 }
+                sessions.setState(slot, state);
 
-                // Sends appropriate message to Client.
-
-                Server.sendOutput(outputStream, inputStream, outputMessage);
+                // Appropriate message to Client, sent with the next prompt or the wait message.
+                outputStream.queue(outputMessage);
             }
             Server.sendOutput(outputStream, inputStream, WAIT_TO_FINISH_MESSAGE);
         }
@@ -208,13 +242,30 @@ public class ServerThread implements Runnable
         catch (SocketTimeoutException e)    // If client doesn't guess for more than 30 seconds
         {
             System.out.println(this.clientName + " was idle for a long time and timed out.");
-            timedout = true;
+            sessions.setFlag(slot, SessionTable.TIMED_OUT, true);
             return;
         }
-        catch (IOException e)
+        catch (InterruptedException e)
         {
             e.printStackTrace();
         }
+        catch (IOException e)               // If the client left or its connection failed.
+        {
+            if (!(e instanceof EOFException) && !connection.isClosed())
+            {
+                e.printStackTrace();
+            }
+            System.out.println(this.clientName + " left the game.");
+            disconnect();
+        }
+        finally
+        {
+            // Other players' rounds must not wait for this client anymore.
+            if (game.isRoundBased())
+            {
+                game.leaveRounds(this);
+            }
+        }
     }
 
     // Asks client if he wants to play again. returns true if we wants to play
@@ -242,80 +293,31 @@ public class ServerThread implements Runnable
     }
 
     // Game uses this method to send the result of this client.
+    @Override
     public String sendResult()
     {
-        if(clientWon)
-        {
-            return (this.clientName + " won with " + (this.MAX_GUESSES - this.guessCounter) + " guesses remaining.");
-        }
-        else
-        {
-            return (this.clientName + " lost.");
-        }
+        return engine.getResult(sessions.getState(slot), clientName);
     }
 
     // Resets the thread for a fresh game.
     private void resetServerThread()
     {
-        this.guessCounter = 0;
-        this.clientWon = false;
+        sessions.setState(slot, 0);         // No moves made and not won.
         this.game = null;
     }
 
-    /*
-    *   Takes guess provided by the client.
-    *   If the guess is not a integer or out of range returns Invalid message.
-    *   If the guess is in range but less than or grater than answer then returns appropriate message.
-    *   If the guess is correct, returns Win message.
-    */
-    private String guessValidity(String guess)
-    {
-        int guessNumber;
-
-        // Covert Guess to string, if not a string return invalid message.
-        try
-        {
-            guessNumber = Integer.parseInt(guess);
-        }
-        catch (NumberFormatException e)
-        {
-            return INVALID_GUESS_MESSAGE;
-        }
-
-        // Check if out of range.
-        if (guessNumber < MIN_GUESS_RANGE || guessNumber > MAX_GUESS_RANGE)
-        {
-            return INVALID_GUESS_MESSAGE;
-        }
-
-        // Check if answer
-        else if (guessNumber == answer)
-        {
-            return CORRECT_GUESS;
-        }
-
-        // Check if less than answer
-        else if (guessNumber < answer)
-        {
-            return GUESS_LOWER_THAN_ANSWER_MESSAGE;
-        }
-
-        // Check if greater than answer
-        else
-        {
-            return GUESS_HIGHER_THAN_ANSWER_MESSAGE;
-        }
-    }
-
-
     // Sends State command to Client, indicating current state. Get's input from client and returns input.
-    private String getInput(OutputStream outputStream, InputStream inputStream, String state) throws IOException
+    private String getInput(OutboundQueue outputStream, InputStream inputStream, String state) throws IOException
     {
         byte [] buffer = new byte[BUFFER];
         String input_from_client = null;
 
         outputStream.write(state.getBytes());
-        inputStream.read(buffer);
+        outputStream.flush();
+        if (inputStream.read(buffer) < 0)
+        {
+            throw new EOFException();
+        }
 
         //Convert to string
         input_from_client = new String(buffer).replace("\0","");
@@ -324,42 +326,191 @@ public class ServerThread implements Runnable
     }
 
     //  Sends stay alaive message to client to notify to wait for other clients.
-    private void stayAlive()
+    //  Not needed when the connection sends its own heartbeats.
+    //  A wake that came before this client started waiting is not lost, it ends the wait straight away.
+    //  While waiting the client is in the waiting room, its chat is read and chat for it is sent straight away.
+    //  Returns false if the connection closed before the client was taken into a game, it left its lobby.
+    //  In a game the wake is still waited for, the game counts on every player.
+    private boolean stayAlive()
     {
+        Set<ServerThread> waitingRoom = server.getWaitingRoom();
+        waitingRoom.add(this);
         try
         {
-            synchronized (this)
+            long stayAliveAt = System.currentTimeMillis() + STAY_ALIVE_INTERVAL*1000;
+            while (true)
             {
-                hold = true;
-                while (hold)
+                synchronized (this)
+                {
+                    if (!sessions.hasFlag(slot, SessionTable.HOLD))
+                    {
+                        sessions.setFlag(slot, SessionTable.HOLD, true);    // Hold again until the next wake.
+                        return true;
+                    }
+                    if (connection.isClosed())
+                    {
+                        // The game is set together with the wake, under this lock.
+                        if (game == null && lobby.leave(this))
+                        {
+                            System.out.println(this.clientName + " left while waiting.");
+                            return false;
+                        }
+                        wait(CHAT_POLL_INTERVAL);
+                        continue;
+                    }
+                    if (!outputStream.hasChat())
+                    {
+                        wait(CHAT_POLL_INTERVAL);
+                    }
+                }
+
+                // Chat is read and sent without the lock, so it never holds up the wake.
+                try
                 {
-                    wait(STAY_ALIVE_INTERVAL*1000);
-                    Server.sendOutput(outputStream,inputStream, STATE[3]);  // Stay alive
+                    inputStream.readChat();
+                    if (outputStream.hasChat())
+                    {
+                        Server.sendOutput(outputStream, inputStream, "");
+                    }
+                    else if (!connection.keepsAlive() && System.currentTimeMillis() >= stayAliveAt)
+                    {
+                        getInput(outputStream, inputStream, STATE[3]);     // Stay alive, the answer is the continue message.
+                        stayAliveAt = System.currentTimeMillis() + STAY_ALIVE_INTERVAL*1000;
+                    }
+                }
+                catch (IOException e)   // The client left or did not answer in time, it is handled as closed.
+                {
+                    disconnect();
                 }
             }
         }
         catch(InterruptedException e)
         {
             e.printStackTrace();
+            return true;
         }
-        catch(SocketTimeoutException e)
+        finally
         {
-            return;
+            waitingRoom.remove(this);
         }
-        catch(IOException e)
+    }
+
+    // Closes the connection of a client that left or failed.
+    private void disconnect()
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (IOException e)
         {
             e.printStackTrace();
         }
     }
 
+    // Chat line from the client, "/all <text>" goes to everyone waiting,
+    // anything else to the other players of the client's game, or of the lobby the client waits in.
+    // The frame is encoded once and shared by every recipient.
+    private void chat(String line)
+    {
+        String text = line.trim();
+        if (clientName == null || text.isEmpty())
+        {
+            return;             // Not registered yet, or nothing to say.
+        }
+        if (!allowChat())
+        {
+            outputStream.queueChat(CHAT_LIMIT_FRAME);
+            return;
+        }
+
+        Collection<? extends Player> recipients;
+        String channel = "";
+        if (text.startsWith(ALL_COMMAND + " "))
+        {
+            recipients = server.getWaitingRoom();
+            channel = ALL_COMMAND + " ";
+            text = text.substring(ALL_COMMAND.length()).trim();
+        }
+        else if (game != null)
+        {
+            recipients = game.getPlayers();
+        }
+        else if (lobby != null)
+        {
+            recipients = lobby.getMembers();
+        }
+        else
+        {
+            recipients = Collections.emptyList();
+        }
+        if (text.length() > MAX_CHAT_LENGTH)
+        {
+            text = text.substring(0, MAX_CHAT_LENGTH);
+        }
+
+        byte[] frame = ("\n[" + channel + clientName + "] " + text).getBytes();
+        boolean sent = false;
+        for (Player player : recipients)
+        {
+            if (player != this)
+            {
+                player.deliverChat(frame);
+                sent = true;
+            }
+        }
+        if (!sent)
+        {
+            outputStream.queueChat(NO_CHAT_FRAME);
+        }
+    }
+
+    // Takes one chat line from the client's allowance, false if it is used up.
+    // The allowance holds CHAT_BURST lines and gets one back every CHAT_REFILL.
+    private boolean allowChat()
+    {
+        long now = System.currentTimeMillis();
+        if (chatTokens == CHAT_BURST)
+        {
+            chatRefilledAt = now;
+        }
+        else
+        {
+            int refill = (int) Math.min(CHAT_BURST, (now - chatRefilledAt) / CHAT_REFILL);
+            chatTokens = Math.min(CHAT_BURST, chatTokens + refill);
+            chatRefilledAt += (long) refill * CHAT_REFILL;
+        }
+        if (chatTokens == 0)
+        {
+            return false;
+        }
+        chatTokens--;
+        return true;
+    }
+
+    // Queues chat from another player, a waiting client gets it straight away.
+    @Override
+    public void deliverChat(byte[] frame)
+    {
+        outputStream.queueChat(frame);
+        synchronized (this)
+        {
+            notify();
+        }
+    }
+
     // Wakes the client from waiting for players and starts the game.
     // It ends the Stay alive method by making hold false.
+    // A client that already left is not woken, its slot may belong to another client by now.
+    @Override
     public void wake()
     {
         synchronized(this)
         {
-            hold = false;
-            notify();
+            if (sessions.setFlag(slot, sessionId, SessionTable.HOLD, false))
+            {
+                notify();
+            }
         }
     }
 
@@ -370,12 +521,26 @@ public class ServerThread implements Runnable
     }
 
     //  Gets client name
+    @Override
     public String getClientName()
     {
         return this.clientName;
     }
 
+    //  Sets the lobby the client waits in
+    public void setLobby(Lobby lobby)
+    {
+        this.lobby = lobby;
+    }
+
+    //  Gets the lobby the client waits or waited in
+    public Lobby getLobby()
+    {
+        return this.lobby;
+    }
+
     //  Sets game
+    @Override
     public void setGame(Game game)
     {
         this.game = game;
@@ -0,0 +1,70 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.lang.ref.Reference;
+
+/**
+ * Measures the heap used per idle player with 1M sessions.
+ * Reports the session table alone, then idle ServerThreads holding a slot each.
+ * The socket, its buffers and the thread serving a connected client are not counted.
+ * Run with: make session-benchmark
+ */
+public class SessionBenchmark
+{
+    private static final int SESSIONS = 1000000;
+
+    public static void main(String[] args)
+    {
+        // Table alone
+        SessionTable table = new SessionTable();
+        long before = usedHeap();
+        for (int i = 0; i < SESSIONS; i++)
+        {
+            table.open();
+        }
+        long after = usedHeap();
+        report("session table", after - before, table.size());
+
+        // Idle players, each a ServerThread with its slot, over a connection that holds nothing.
+        Connection idle = new Connection()
+        {
+            public InputStream getInputStream() { return null; }
+            public OutputStream getOutputStream() { return null; }
+            public void write(ByteBuffer[] parts, int count) { }
+            public void setTimeout(int timeout) { }
+            public boolean keepsAlive() { return true; }
+            public boolean isClosed() { return false; }
+            public void close() { }
+        };
+        Server server = new Server(new NumberGuessEngine(), false);
+        ServerThread[] players = new ServerThread[SESSIONS];
+
+        before = usedHeap();
+        for (int i = 0; i < SESSIONS; i++)
+        {
+            players[i] = new ServerThread(idle, server);
+        }
+        after = usedHeap();
+        report("idle players", after - before, server.getSessions().size());
+
+        // Keeps both alive until measured.
+        Reference.reachabilityFence(table);
+        Reference.reachabilityFence(players);
+    }
+
+    private static void report(String what, long bytes, int sessions)
+    {
+        System.out.println(what + ": " + bytes / (1024 * 1024) + " MB for " + sessions + " sessions, "
+                + bytes / sessions + " bytes per session");
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
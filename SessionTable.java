@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+/**
+ * Hot per-player state of every connected client, kept in primitive arrays indexed by slot
+ * instead of in fields of each ServerThread, so an idle player costs a few bytes.
+ * Slots are grouped in pages that never move, the table grows by adding pages,
+ * and closed slots are reused. Every session gets its own id, so a thread that still refers
+ * to a closed session cannot change the session that reused its slot.
+ */
+public class SessionTable
+{
+    // Flags of a session
+    public static final byte HOLD = 1;          // Client is waiting to be woken by its game
+    public static final byte TIMED_OUT = 2;     // Client was idle for too long
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;    // Slots per page
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Slots of one page, by index within the page.
+    private static class Page
+    {
+        final int[] sessionIds = new int[PAGE_SIZE];
+        final long[] states = new long[PAGE_SIZE];      // Game state, see EngineState
+        final byte[] flags = new byte[PAGE_SIZE];
+    }
+
+    private volatile Page[] pages = new Page[0];
+
+    // Slot allocation, guarded by this table's lock.
+    private int[] freeSlots = new int[PAGE_SIZE];
+    private int freeCount;
+    private int nextSessionId = 1;
+    private int openSessions;
+
+    // Opens a session in a free slot and returns the slot, the session starts on hold.
+    public int open()
+    {
+        synchronized (this)
+        {
+            if (freeCount == 0)
+            {
+                addPage();
+            }
+            int slot = freeSlots[--freeCount];
+            Page page = pages[slot >>> PAGE_BITS];
+            int index = slot & PAGE_MASK;
+
+            synchronized (page)
+            {
+                page.sessionIds[index] = nextSessionId++;
+                page.states[index] = 0;
+                page.flags[index] = HOLD;
+            }
+            openSessions++;
+            return slot;
+        }
+    }
+
+    // Closes the session, its slot is given to a later session.
+    public void close(int slot)
+    {
+        synchronized (this)
+        {
+            Page page = pages[slot >>> PAGE_BITS];
+            synchronized (page)
+            {
+                page.sessionIds[slot & PAGE_MASK] = 0;
+            }
+            if (freeCount == freeSlots.length)
+            {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            openSessions--;
+        }
+    }
+
+    public int getSessionId(int slot)
+    {
+        return pages[slot >>> PAGE_BITS].sessionIds[slot & PAGE_MASK];
+    }
+
+    public long getState(int slot)
+    {
+        return pages[slot >>> PAGE_BITS].states[slot & PAGE_MASK];
+    }
+
+    public void setState(int slot, long state)
+    {
+        pages[slot >>> PAGE_BITS].states[slot & PAGE_MASK] = state;
+    }
+
+    public boolean hasFlag(int slot, byte flag)
+    {
+        Page page = pages[slot >>> PAGE_BITS];
+        synchronized (page)
+        {
+            return (page.flags[slot & PAGE_MASK] & flag) != 0;
+        }
+    }
+
+    // Flags of a slot share a byte and may be changed by different threads, so changes lock the page.
+    public void setFlag(int slot, byte flag, boolean value)
+    {
+        Page page = pages[slot >>> PAGE_BITS];
+        synchronized (page)
+        {
+            if (value)
+            {
+                page.flags[slot & PAGE_MASK] |= flag;
+            }
+            else
+            {
+                page.flags[slot & PAGE_MASK] &= ~flag;
+            }
+        }
+    }
+
+    // Changes a flag only if the slot still holds the session, for threads other than the session's own.
+    // Returns false if the session was closed, its slot may belong to a later session by now.
+    public boolean setFlag(int slot, int sessionId, byte flag, boolean value)
+    {
+        Page page = pages[slot >>> PAGE_BITS];
+        synchronized (page)
+        {
+            if (page.sessionIds[slot & PAGE_MASK] != sessionId)
+            {
+                return false;
+            }
+            setFlag(slot, flag, value);
+            return true;
+        }
+    }
+
+    // Number of open sessions.
+    public int size()
+    {
+        synchronized (this)
+        {
+            return openSessions;
+        }
+    }
+
+    // Adds a page and makes its slots free, lowest slot handed out first.
+    private void addPage()
+    {
+        Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+        grown[pages.length] = new Page();
+
+        int firstSlot = pages.length << PAGE_BITS;
+        if (freeSlots.length < PAGE_SIZE)
+        {
+            freeSlots = new int[PAGE_SIZE];
+        }
+        for (int i = 0; i < PAGE_SIZE; i++)
+        {
+            freeSlots[i] = firstSlot + PAGE_SIZE - 1 - i;
+        }
+        freeCount = PAGE_SIZE;
+        pages = grown;
+    }
+}
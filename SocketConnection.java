@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection over a TCP socket, the default transport.
+ * The socket is kept as a blocking channel so queued messages leave in one gathering write.
+ */
+public class SocketConnection implements Connection
+{
+    // Write system calls of every TCP connection in this process, for the benchmarks.
+    private static final AtomicLong WRITES = new AtomicLong();
+
+    private SocketChannel channel;
+
+    // With noDelay every write is sent straight away, Nagle's algorithm would hold small writes
+    // until the last one is acknowledged. Messages are already coalesced by OutboundQueue.
+    public SocketConnection(SocketChannel channel, boolean noDelay) throws IOException
+    {
+        this.channel = channel;
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, noDelay);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        return channel.socket().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException
+    {
+        return channel.socket().getOutputStream();
+    }
+
+    // One gathering write, more only when the socket buffer is full.
+    @Override
+    public void write(ByteBuffer[] parts, int count) throws IOException
+    {
+        long remaining = 0;
+        for (int i = 0; i < count; i++)
+        {
+            remaining += parts[i].remaining();
+        }
+        while (remaining > 0)
+        {
+            remaining -= channel.write(parts, 0, count);
+            WRITES.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void setTimeout(int timeout) throws IOException
+    {
+        channel.socket().setSoTimeout(timeout);
+    }
+
+    // TCP needs the Stay Alive messages to notice dead clients.
+    @Override
+    public boolean keepsAlive()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    // Write system calls made so far by all TCP connections.
+    public static long getWrites()
+    {
+        return WRITES.get();
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how fast a freshly started server serves clients at full speed.
+ * Starts the server as a new process and reports the time until it accepted the first connection,
+ * and the time until guesses are answered as fast as they will be (the steady-state latency).
+ * A guess is timed until the answer is read, like one step of the game.
+ * By default it compares a cold start, the default warm-up and, once made, the class archive.
+ * Arguments run one start instead: JVM options first, then the server's, e.g. -Xint warmup=0
+ * Run with: make startup-benchmark
+ */
+public class StartupBenchmark
+{
+    private static final int PORT = 61616;
+    private static final int PLAYERS = 3;
+    private static final int GAMES = 400;
+    private static final int WINDOW = 50;                   // Guesses in the rolling median
+    private static final double STEADY = 1.5;               // Steady once the rolling median is this close to the final
+    private static final String ARCHIVE = "server.jsa";
+    private static final String JAR = "server.jar";
+    private static final GameEngine ENGINE = new NumberGuessEngine();
+
+    public static void main(String[] args) throws Exception
+    {
+        // The first start warms up this benchmark's own clients and is not reported.
+        measure(null, Arrays.asList("warmup=0"));
+
+        if (args.length > 0)
+        {
+            measure(String.join(" ", args), Arrays.asList(args));
+            return;
+        }
+
+        measure("cold start", Arrays.asList("warmup=0"));
+        measure("warm-up", Arrays.asList());
+        if (new File(ARCHIVE).exists())
+        {
+            measure("class archive", Arrays.asList("-XX:SharedArchiveFile=" + ARCHIVE, "-cp", JAR, "warmup=0"));
+            measure("class archive and warm-up", Arrays.asList("-XX:SharedArchiveFile=" + ARCHIVE, "-cp", JAR));
+        }
+        else
+        {
+            System.out.println("No " + ARCHIVE + ", make it with: make cds-archive");
+        }
+    }
+
+    // Starts a server with the arguments, plays games against it and reports.
+    private static void measure(String title, List<String> args) throws Exception
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        List<String> serverArgs = new ArrayList<String>(Arrays.asList("wait=0"));
+        for (int i = 0; i < args.size(); i++)
+        {
+            if (args.get(i).equals("-cp"))
+            {
+                command.add(args.get(i++));         // The class path follows
+                command.add(args.get(i));
+            }
+            else if (args.get(i).startsWith("-"))
+            {
+                command.add(args.get(i));
+            }
+            else
+            {
+                serverArgs.add(args.get(i));
+            }
+        }
+        if (!command.contains("-cp"))
+        {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+        }
+        command.add("Server");
+        command.addAll(serverArgs);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        long start = System.nanoTime();
+        Process process = builder.start();
+
+        try
+        {
+            ScriptedClient first = null;
+            long[] times = new long[0];
+            long[] latencies = new long[0];
+            for (int game = 0; game < GAMES; game++)
+            {
+                ScriptedClient timed = playGame(game, game == 0);
+                if (first == null)
+                {
+                    first = timed;
+                }
+                times = append(times, timed.getGuessTimes());
+                latencies = append(latencies, timed.getGuessLatencies());
+            }
+
+            long steadyLatency = median(latencies, latencies.length * 3 / 4, latencies.length);
+            int steadyAt = -1;
+            for (int i = WINDOW; i <= latencies.length && steadyAt < 0; i++)
+            {
+                if (median(latencies, i - WINDOW, i) <= steadyLatency * STEADY)
+                {
+                    steadyAt = i - 1;
+                }
+            }
+
+            if (title == null)
+            {
+                return;
+            }
+            System.out.println(title + ":");
+            System.out.println("  first accepted connection: " + (first.getFirstMessageAt() - start) / 1000000 + " ms");
+            System.out.println("  first game guess latency p50: "
+                    + median(first.getGuessLatencies(), 0, first.getGuessLatencies().length) / 1000 + " us");
+            System.out.println("  steady-state latency p50 " + steadyLatency / 1000 + " us, reached after "
+                    + (steadyAt < 0 ? "-" : (times[steadyAt] - start) / 1000000 + " ms")
+                    + " and " + (steadyAt + 1) + " guesses");
+        }
+        finally
+        {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    // Plays one game, returns the first player, whose guesses are timed.
+    // The first game waits for the server to accept connections.
+    private static ScriptedClient playGame(int game, boolean waitForServer) throws Exception
+    {
+        final ScriptedClient[] clients = new ScriptedClient[PLAYERS];
+        Thread[] threads = new Thread[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++)
+        {
+            clients[i] = new ScriptedClient(connect(waitForServer), "startup" + game + "_" + i, ENGINE);
+            final ScriptedClient client = clients[i];
+            threads[i] = new Thread(() -> {
+                try
+                {
+                    client.play();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            });
+        }
+        clients[0].timeGuesses();
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        return clients[0];
+    }
+
+    private static SocketConnection connect(boolean waitForServer) throws Exception
+    {
+        while (true)
+        {
+            try
+            {
+                return new SocketConnection(SocketChannel.open(new InetSocketAddress("localhost", PORT)), true);
+            }
+            catch (IOException e)
+            {
+                if (!waitForServer)
+                {
+                    throw e;
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static long[] append(long[] values, long[] more)
+    {
+        long[] all = Arrays.copyOf(values, values.length + more.length);
+        System.arraycopy(more, 0, all, values.length, more.length);
+        return all;
+    }
+
+    private static long median(long[] values, int from, int to)
+    {
+        if (to <= from)
+        {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Compares guess to response latency of the TCP and the datagram transport on the local machine.
+ * A guess is sent to an echo server and timed until the response is read, like one step of the game.
+ * Run with: make benchmark
+ */
+public class TransportBenchmark
+{
+    private static final int TCP_PORT = 61617;
+    private static final int UDP_PORT = 61618;
+    private static final int WARMUP_GUESSES = 50000;     // Until both paths are compiled, the datagram one is longer
+    private static final int GUESSES = 20000;
+    private static final byte[] GUESS = "5".getBytes();
+
+    public static void main(String[] args) throws Exception
+    {
+        // TCP echo server
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(TCP_PORT));
+        Thread acceptor = new Thread(() -> {
+            try
+            {
+                echo(new SocketConnection(serverChannel.accept(), true));
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        // Datagram echo server
+        DatagramTransport transport = DatagramTransport.listen(UDP_PORT, connection -> echo(connection));
+
+        report("tcp", measure(new SocketConnection(SocketChannel.open(new InetSocketAddress("localhost", TCP_PORT)), true)));
+        report("udp", measure(DatagramTransport.connect("localhost", UDP_PORT)));
+
+        serverChannel.close();
+        transport.close();
+    }
+
+    // Sends guesses one at a time, returns the response time of each in nanoseconds.
+    private static long[] measure(Connection connection) throws IOException
+    {
+        InputStream inputStream = connection.getInputStream();
+        OutputStream outputStream = connection.getOutputStream();
+        byte[] buffer = new byte[1024];
+        long[] latencies = new long[GUESSES];
+
+        for (int i = 0; i < WARMUP_GUESSES + GUESSES; i++)
+        {
+            long start = System.nanoTime();
+            outputStream.write(GUESS);
+            inputStream.read(buffer);
+            if (i >= WARMUP_GUESSES)
+            {
+                latencies[i - WARMUP_GUESSES] = System.nanoTime() - start;
+            }
+        }
+        connection.close();
+        return latencies;
+    }
+
+    // Answers every message with the same bytes, on its own thread.
+    private static void echo(final Connection connection)
+    {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[1024];
+            try
+            {
+                InputStream inputStream = connection.getInputStream();
+                OutputStream outputStream = connection.getOutputStream();
+                int length;
+                while ((length = inputStream.read(buffer)) > 0)
+                {
+                    outputStream.write(buffer, 0, length);
+                }
+            }
+            catch (IOException e)
+            {
+                // Client is done.
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void report(String transport, long[] latencies)
+    {
+        Arrays.sort(latencies);
+        System.out.println(transport + ": p50 " + micros(latencies, 0.50) + " us, p99 " + micros(latencies, 0.99)
+                + " us, max " + latencies[latencies.length - 1] / 1000 + " us over " + latencies.length + " guesses");
+    }
+
+    private static long micros(long[] sorted, double percentile)
+    {
+        return sorted[(int) (percentile * (sorted.length - 1))] / 1000;
+    }
+}
@@ -0,0 +1,74 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Usernames of the clients online, so no two clients play under the same name.
+ * Names are unique ignoring case, "Alice" and "alice" are the same player.
+ * Lookups are a single hash lookup, and reserving a name is atomic so clients
+ * registering at the same time cannot both get it.
+ */
+public class UsernameRegistry
+{
+    public static final int MAX_LENGTH = 25;            // Same limit as the client
+
+    private final ConcurrentHashMap<String, ServerThread> online = new ConcurrentHashMap<String, ServerThread>();
+
+    // Checks the name as it arrived from the client and returns it, or null if it is not a valid name.
+    // A valid name has 1 to 25 letters, digits, '_', '-' or '.'.
+    public static String validate(byte[] buffer, int length)
+    {
+        if (length < 1 || length > MAX_LENGTH)
+        {
+            return null;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            byte b = buffer[i];
+            boolean valid = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '_' || b == '-' || b == '.';
+            if (!valid)
+            {
+                return null;
+            }
+        }
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    // Reserves the name for the client, returns false if someone online already uses it.
+    public boolean reserve(String name, ServerThread serverThread)
+    {
+        return online.putIfAbsent(fold(name), serverThread) == null;
+    }
+
+    // Frees the name when the client leaves, only if the client is the one holding it.
+    public void release(String name, ServerThread serverThread)
+    {
+        if (name != null)
+        {
+            online.remove(fold(name), serverThread);
+        }
+    }
+
+    // Checks if a client with this name is online.
+    public boolean isOnline(String name)
+    {
+        return online.containsKey(fold(name));
+    }
+
+    // Returns the client online with this name, null if there is none.
+    public ServerThread find(String name)
+    {
+        return online.get(fold(name));
+    }
+
+    public int size()
+    {
+        return online.size();
+    }
+
+    private static String fold(String name)
+    {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
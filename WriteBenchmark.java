@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the writes and packets it takes to play a game over TCP on the local machine.
+ * Plays whole 3 player games against a server in this process, from registering to quitting,
+ * and reports per game the server's write system calls, the clients' writes and the TCP segments sent.
+ * Segments are read from /proc/net/snmp, so they count every TCP packet on the machine while it runs.
+ * Run with: make write-benchmark, add nagle to leave Nagle's algorithm on.
+ * With external it plays against a server already running on port 61616 and counts its messages instead.
+ */
+public class WriteBenchmark
+{
+    private static final int PORT = 61619;
+    private static final int EXTERNAL_PORT = 61616;
+    private static final int PLAYERS = 3;
+    private static final int WARMUP_GAMES = 20;
+    private static final int GAMES = 200;
+    private static final GameEngine ENGINE = new NumberGuessEngine();
+
+    // Messages read and written by all the benchmark's clients.
+    private static final AtomicLong reads = new AtomicLong();
+    private static final AtomicLong writes = new AtomicLong();
+
+    public static void main(String[] args) throws Exception
+    {
+        boolean external = false;
+        boolean noDelay = true;
+        for (String arg : args)
+        {
+            external |= arg.equalsIgnoreCase("external");
+            noDelay &= !arg.equalsIgnoreCase("nagle");
+        }
+
+        int port = EXTERNAL_PORT;
+        if (!external)
+        {
+            // Server with a lobby that waits for all the players, no bots.
+            final Server server = new Server(ENGINE, false);
+            server.setMaxWait(0, false);
+            final ServerSocketChannel serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(PORT));
+            final ExecutorService executor = Executors.newFixedThreadPool(15);
+            final boolean serverNoDelay = noDelay;
+            Thread acceptor = new Thread(() -> {
+                try
+                {
+                    server.acceptClients(serverChannel, executor, serverNoDelay);
+                }
+                catch (IOException e)
+                {
+                    // Closed at the end of the run.
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            port = PORT;
+        }
+
+        for (int i = 0; i < WARMUP_GAMES; i++)
+        {
+            playGame(port, i);
+        }
+
+        reads.set(0);
+        writes.set(0);
+        long serverWrites = SocketConnection.getWrites();
+        long segments = tcpSegments();
+        for (int i = 0; i < GAMES; i++)
+        {
+            playGame(port, WARMUP_GAMES + i);
+        }
+        serverWrites = SocketConnection.getWrites() - serverWrites;
+        segments = tcpSegments() - segments;
+
+        System.out.println("per game of " + PLAYERS + " players, over " + GAMES + " games:");
+        System.out.println("  server messages: " + perGame(reads.get()));
+        if (!external)
+        {
+            System.out.println("  server write system calls: " + perGame(serverWrites));
+        }
+        System.out.println("  client writes: " + perGame(writes.get()));
+        if (segments >= 0)
+        {
+            System.out.println("  tcp segments: " + perGame(segments));
+        }
+        System.exit(0);
+    }
+
+    // Plays one game with every player on its own thread, returns when all of them quit.
+    private static void playGame(int port, int game) throws InterruptedException
+    {
+        Thread[] players = new Thread[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++)
+        {
+            final String name = "bench" + game + "_" + i;
+            players[i] = new Thread(() -> {
+                try
+                {
+                    ScriptedClient client = new ScriptedClient(
+                            new SocketConnection(SocketChannel.open(new InetSocketAddress("localhost", port)), true),
+                            name, ENGINE);
+                    client.play();
+                    reads.addAndGet(client.getReads());
+                    writes.addAndGet(client.getWrites());
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            });
+            players[i].start();
+        }
+        for (Thread player : players)
+        {
+            player.join();
+        }
+    }
+
+    private static String perGame(long count)
+    {
+        return String.format("%.1f", (double) count / GAMES);
+    }
+
+    // TCP segments sent by this machine so far, -1 if the system does not tell.
+    private static long tcpSegments()
+    {
+        Path snmp = Paths.get("/proc/net/snmp");
+        try
+        {
+            List<String> lines = Files.readAllLines(snmp);
+            for (int i = 0; i + 1 < lines.size(); i++)
+            {
+                if (lines.get(i).startsWith("Tcp:") && lines.get(i + 1).startsWith("Tcp:"))
+                {
+                    String[] names = lines.get(i).split("\\s+");
+                    String[] values = lines.get(i + 1).split("\\s+");
+                    for (int j = 0; j < names.length; j++)
+                    {
+                        if (names[j].equals("OutSegs"))
+                        {
+                            return Long.parseLong(values[j]);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // Not Linux.
+        }
+        return -1;
+    }
+}